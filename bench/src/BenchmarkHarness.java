@@ -0,0 +1,127 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * A small benchmark harness, in the spirit of JMH, that needs nothing but the JDK.
+ * Every benchmark is warmed up, and then run repeatedly for a fixed time.
+ * For every benchmark, the harness reports the time per operation with the error of the mean
+ * (the half-width of its 99.9% confidence interval over the measurement iterations, as JMH does),
+ * the operations per second, the bytes allocated per operation by the benchmark thread,
+ * and the garbage collections during the measurement.
+ * Benchmarks.main runs every benchmark in a fresh JVM (a fork), so that the profile and the garbage
+ * of one benchmark do not affect the next.
+ */
+public class BenchmarkHarness {
+
+    /**
+     * A benchmarked piece of code. Every call to run() performs a fixed number of operations.
+     * Results should be passed to consume(), so that the JIT cannot remove the code that computed them.
+     */
+    public interface Operation {
+        void run();
+    }
+
+    private int warmupIterations;
+    private int measurementIterations;
+    private long iterationNanos;
+
+    // Student's t quantiles for a two-sided 99.9% confidence interval, by degrees of freedom (index 0 is unused)
+    private static final double[] T_999 = {Double.NaN, 636.62, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408,
+            5.041, 4.781, 4.587, 4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850};
+
+    private com.sun.management.ThreadMXBean threadBean;
+    private double blackhole;
+    public static volatile double sink; // Where the blackhole is flushed, so that it is observable
+
+    public BenchmarkHarness(int warmupIterations, int measurementIterations, long iterationMillis){
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = iterationMillis*1000000L;
+        this.threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * Keep a benchmark result alive.
+     */
+    public void consume(double value){
+        this.blackhole += value;
+    }
+
+    /**
+     * Warm up and measure the given operation, and print the result.
+     * @param opsPerRun the number of operations performed by every call to operation.run()
+     */
+    public void measure(String name, int opsPerRun, Operation operation){
+        for(int i=0;i<this.warmupIterations;i++)
+            this.runIteration(operation);
+
+        long threadId = Thread.currentThread().getId();
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long allocatedBytes = this.threadBean.getThreadAllocatedBytes(threadId);
+        long nanos = 0;
+        long runs = 0;
+        double[] nanosPerOp = new double[this.measurementIterations];
+        for(int i=0;i<this.measurementIterations;i++){
+            long start = System.nanoTime();
+            long iterationRuns = this.runIteration(operation);
+            long iterationNanos = System.nanoTime()-start;
+            nanosPerOp[i] = iterationNanos/((double) iterationRuns*opsPerRun);
+            runs += iterationRuns;
+            nanos += iterationNanos;
+        }
+        allocatedBytes = this.threadBean.getThreadAllocatedBytes(threadId)-allocatedBytes;
+        gcCount = gcCount()-gcCount;
+        gcMillis = gcMillis()-gcMillis;
+        sink = this.blackhole;
+
+        double ops = (double) runs*opsPerRun;
+        System.out.format("%-45s %14.1f +- %10.1f ns/op %16.0f ops/s %12.1f B/op %6d GCs %8d ms GC%n",
+                name, nanos/ops, error(nanosPerOp), ops*1e9/nanos, allocatedBytes/ops, gcCount, gcMillis);
+    }
+
+    /**
+     * The half-width of the 99.9% confidence interval of the mean of the given samples (NaN for a single sample).
+     */
+    private static double error(double[] samples){
+        int n = samples.length;
+        if(n<2)
+            return Double.NaN;
+        double mean = 0;
+        for(double sample : samples)
+            mean += sample/n;
+        double sumOfSquares = 0;
+        for(double sample : samples)
+            sumOfSquares += (sample-mean)*(sample-mean);
+        double t = n-1<T_999.length ? T_999[n-1] : 3.291;
+        return t*Math.sqrt(sumOfSquares/(n-1)/n);
+    }
+
+    /**
+     * Call the operation until the iteration time is up, at least once.
+     * @return the number of calls.
+     */
+    private long runIteration(Operation operation){
+        long end = System.nanoTime()+this.iterationNanos;
+        long runs = 0;
+        do{
+            operation.run();
+            runs++;
+        }while(System.nanoTime()<end);
+        return runs;
+    }
+
+    private static long gcCount(){
+        long count = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0,gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMillis(){
+        long millis = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0,gc.getCollectionTime());
+        return millis;
+    }
+}
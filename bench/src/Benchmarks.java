@@ -0,0 +1,242 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks of the environment, the Q table, the learning and planning agents, and the Runner,
+ * on grids of several sizes with fixed-seed spill probabilities.
+ *
+ * Run with the main module's classes on the classpath, e.g.:
+ *   javac -d out src/*.java bench/src/*.java
+ *   java -Xmx4g -cp out Benchmarks [name filter]
+ * Only the benchmarks whose name contains the filter are run.
+ * StencilValueIterationAgent.vectorSweep needs the Vector API row update (see StencilValueIterationAgent):
+ *   javac --release 17 --add-modules jdk.incubator.vector -cp out -d out vector/src/*.java
+ *   java --add-modules jdk.incubator.vector -Xmx4g -cp out Benchmarks [name filter]
+ * and is skipped otherwise. The sweep benchmarks time whole plan() calls, per sweep, to compare the planners.
+ * Every benchmark on every grid size runs in its own forked JVM, with the same classpath and JVM options.
+ *
+ * The project has no dependency management, so JMH itself is not used; BenchmarkHarness covers
+ * what the suite needs from it: warmup, fork isolation, a blackhole and the error of every result.
+ */
+public class Benchmarks {
+    private static final int[] GRID_SIZES = {3, 100, 1000};
+    private static final long SEED = 42;
+    private static final double DISCOUNT_FACTOR = 0.75;
+    private static final int OPS_PER_RUN = 1024; // For the benchmarks of single operations
+    private static final String[] BENCHMARKS = {"CoffeeEnvironment.apply", "CoffeeEnvironment.getLegalActions",
+            "QValues.getQValue", "QValues.setQValue", "AbstractQLearningAgent.learn",
+            "ValueIterationAgent.plan", "ValueIterationAgent.chooseAction", "Runner.runEpisodes",
+            "ValueIterationAgent.sweep", "StencilValueIterationAgent.scalarSweep", "StencilValueIterationAgent.vectorSweep"};
+    private static final String FORKED = "--forked";
+
+    private BenchmarkHarness harness;
+    private String filter;
+
+    public Benchmarks(BenchmarkHarness harness, String filter){
+        this.harness = harness;
+        this.filter = filter;
+    }
+
+    /**
+     * A spill probabilities grid drawn from a fixed seed, so that all runs benchmark the same world.
+     */
+    public static double[][] createSpillProbabilities(int rows, int cols, long seed) {
+        Random random = new Random(seed);
+        double[][] spillProbabilities = new double[rows][cols];
+        for (int i=0;i<rows;i++)
+            for(int j=0;j<cols;j++)
+                spillProbabilities[i][j] = random.nextDouble();
+        return spillProbabilities;
+    }
+
+    private boolean selected(String name){
+        return this.filter==null || name.contains(this.filter);
+    }
+
+    /**
+     * Random non-terminal states, and a random legal action of every one of them.
+     */
+    private static int[][] sampleStateActions(CoffeeEnvironment environment, int count, long seed){
+        Random random = new Random(seed);
+        int[] states = new int[count];
+        int[] actions = new int[count];
+        for(int i=0;i<count;i++){
+            states[i] = random.nextInt(environment.getNumStates()-1);
+            List<CoffeeWorldAction> legalActions = environment.getLegalActions(states[i]);
+            actions[i] = legalActions.get(random.nextInt(legalActions.size())).id;
+        }
+        return new int[][]{states, actions};
+    }
+
+    public void run(final int size){
+        final double[][] spillProbabilities = createSpillProbabilities(size, size, SEED);
+        final CoffeeEnvironment environment = new CoffeeEnvironment(size, size, spillProbabilities);
+        int[][] sample = sampleStateActions(environment, OPS_PER_RUN, SEED);
+        final CoffeeWorldState[] states = new CoffeeWorldState[OPS_PER_RUN];
+        final CoffeeWorldAction[] actions = new CoffeeWorldAction[OPS_PER_RUN];
+        for(int i=0;i<OPS_PER_RUN;i++){
+            states[i] = environment.stateOf(sample[0][i]);
+            actions[i] = CoffeeWorldAction.ACTIONS[sample[1][i]];
+        }
+        String suffix = "(" + size + "x" + size + ")";
+
+        if(this.selected("CoffeeEnvironment.apply"))
+            this.harness.measure("CoffeeEnvironment.apply" + suffix, OPS_PER_RUN, new BenchmarkHarness.Operation() {
+                public void run() {
+                    for(int i=0;i<OPS_PER_RUN;i++)
+                        harness.consume(environment.apply(states[i],actions[i]).reward);
+                }
+            });
+
+        if(this.selected("CoffeeEnvironment.getLegalActions"))
+            this.harness.measure("CoffeeEnvironment.getLegalActions" + suffix, OPS_PER_RUN, new BenchmarkHarness.Operation() {
+                public void run() {
+                    for(int i=0;i<OPS_PER_RUN;i++)
+                        harness.consume(environment.getLegalActions(states[i]).size());
+                }
+            });
+
+        final QValues qValues = new QValues(environment);
+        if(this.selected("QValues.getQValue"))
+            this.harness.measure("QValues.getQValue" + suffix, OPS_PER_RUN, new BenchmarkHarness.Operation() {
+                public void run() {
+                    for(int i=0;i<OPS_PER_RUN;i++)
+                        harness.consume(qValues.getQValue(states[i],actions[i]));
+                }
+            });
+
+        if(this.selected("QValues.setQValue"))
+            this.harness.measure("QValues.setQValue" + suffix, OPS_PER_RUN, new BenchmarkHarness.Operation() {
+                public void run() {
+                    for(int i=0;i<OPS_PER_RUN;i++)
+                        qValues.setQValue(states[i],actions[i],i);
+                }
+            });
+
+        final AbstractQLearningAgent learningAgent = new EpsilonGreedyAgent(environment, DISCOUNT_FACTOR, 0.1);
+        if(this.selected("AbstractQLearningAgent.learn"))
+            this.harness.measure("AbstractQLearningAgent.learn" + suffix, OPS_PER_RUN, new BenchmarkHarness.Operation() {
+                public void run() {
+                    for(int i=0;i<OPS_PER_RUN;i++)
+                        learningAgent.learn(states[i],actions[i],states[(i+1)%OPS_PER_RUN],1.0);
+                }
+            });
+
+        if(this.selected("ValueIterationAgent.plan") || this.selected("ValueIterationAgent.chooseAction")
+                || this.selected("Runner.runEpisodes")) {
+            OpenCoffeeEnvironment openEnvironment = new OpenCoffeeEnvironment(size, size, spillProbabilities);
+            final ValueIterationAgent planner = new ValueIterationAgent(openEnvironment, DISCOUNT_FACTOR);
+            // plan() starts from zero V values every time, so every run is a full solve
+            if (this.selected("ValueIterationAgent.plan"))
+                this.harness.measure("ValueIterationAgent.plan" + suffix, 1, new BenchmarkHarness.Operation() {
+                    public void run() {
+                        planner.plan();
+                    }
+                });
+            else
+                planner.plan();
+
+            if (this.selected("ValueIterationAgent.chooseAction"))
+                this.harness.measure("ValueIterationAgent.chooseAction" + suffix, OPS_PER_RUN, new BenchmarkHarness.Operation() {
+                    public void run() {
+                        for (int i = 0; i < OPS_PER_RUN; i++)
+                            harness.consume(planner.chooseAction(states[i]).id);
+                    }
+                });
+
+            final Runner runner = new Runner();
+            final int episodes = 100;
+            if (this.selected("Runner.runEpisodes"))
+                this.harness.measure("Runner.runEpisodes" + suffix, episodes, new BenchmarkHarness.Operation() {
+                    public void run() {
+                        harness.consume(runner.runEpisodes(environment, planner, DISCOUNT_FACTOR, episodes));
+                    }
+                });
+        }
+
+        if(this.selected("ValueIterationAgent.sweep") || this.selected("StencilValueIterationAgent.scalarSweep")
+                || this.selected("StencilValueIterationAgent.vectorSweep")) {
+            OpenCoffeeEnvironment openEnvironment = new OpenCoffeeEnvironment(size, size, spillProbabilities);
+            if (this.selected("ValueIterationAgent.sweep")) {
+                ValueIterationAgent planner = new ValueIterationAgent(openEnvironment, DISCOUNT_FACTOR);
+                Metrics metrics = new Metrics();
+                planner.setMetrics(metrics);
+                planner.plan();
+                planner.setMetrics(null);
+                this.measureSweeps("ValueIterationAgent.sweep" + suffix, planner, metrics.snapshot().sweeps);
+            }
+            if (this.selected("StencilValueIterationAgent.scalarSweep")) {
+                StencilValueIterationAgent planner = new StencilValueIterationAgent(openEnvironment, DISCOUNT_FACTOR);
+                planner.setVectorized(false);
+                Metrics metrics = new Metrics();
+                planner.setMetrics(metrics);
+                planner.plan();
+                planner.setMetrics(null);
+                this.measureSweeps("StencilValueIterationAgent.scalarSweep" + suffix, planner, metrics.snapshot().sweeps);
+            }
+            if (this.selected("StencilValueIterationAgent.vectorSweep")) {
+                if (StencilValueIterationAgent.isVectorAvailable()) {
+                    StencilValueIterationAgent planner = new StencilValueIterationAgent(openEnvironment, DISCOUNT_FACTOR);
+                    planner.setVectorized(true);
+                    Metrics metrics = new Metrics();
+                    planner.setMetrics(metrics);
+                    planner.plan();
+                    planner.setMetrics(null);
+                    this.measureSweeps("StencilValueIterationAgent.vectorSweep" + suffix, planner,
+                            metrics.snapshot().sweeps);
+                }
+                else
+                    System.out.println("StencilValueIterationAgent.vectorSweep" + suffix
+                            + " skipped: the Vector API is not available");
+            }
+        }
+    }
+
+    /**
+     * Measure whole plan() calls of a planner whose plan() does the given number of sweeps, per sweep.
+     */
+    private void measureSweeps(String name, final MDPAgent planner, long sweeps){
+        this.harness.measure(name, (int) sweeps, new BenchmarkHarness.Operation() {
+            public void run() {
+                planner.plan();
+            }
+        });
+    }
+
+    /**
+     * Run the selected benchmarks, each in a forked JVM.
+     * A forked JVM is started with the arguments --forked, the benchmark name and the grid size.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length==3 && FORKED.equals(args[0])){
+            Benchmarks benchmarks = new Benchmarks(new BenchmarkHarness(3, 5, 500), args[1]);
+            benchmarks.run(Integer.parseInt(args[2]));
+            return;
+        }
+
+        String filter = args.length>0 ? args[0] : null;
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Benchmarks.class.getName());
+        command.add(FORKED);
+        int fixedArguments = command.size();
+        for(int size : GRID_SIZES)
+            for(String name : BENCHMARKS){
+                if(filter!=null && !name.contains(filter))
+                    continue;
+                command.subList(fixedArguments, command.size()).clear();
+                command.add(name);
+                command.add(Integer.toString(size));
+                int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+                if(exitCode!=0)
+                    System.err.println(name + "(" + size + "x" + size + ") failed with exit code " + exitCode);
+            }
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.Random;
+
+/**
+ * Checks PolicyEvaluator against simulation: for a few worlds, the exact expected discounted rewards of a planned
+ * policy must lie within Z standard errors of the average of episodes simulated by Runner with the same policy.
+ * Exits with status 1 if any world disagrees.
+ *
+ * Run with the main module's classes on the classpath, e.g.:
+ *   javac -d out src/*.java bench/src/*.java
+ *   java -cp out PolicyEvaluatorCheck
+ */
+public class PolicyEvaluatorCheck {
+    private static final int EPISODES = 200000;
+    private static final double Z = 4.0; // A false alarm has a probability of about 6e-5 per world
+
+    /**
+     * Compare the exact and simulated values of the policy planned in the given world.
+     * @return true if they agree.
+     */
+    private static boolean check(String name, int rows, int cols, double[][] spillProbabilities,
+                                 double discountFactor, long seed){
+        OpenCoffeeEnvironment environment = new OpenCoffeeEnvironment(rows, cols, spillProbabilities, new Random(seed));
+        StencilValueIterationAgent agent = new StencilValueIterationAgent(environment, discountFactor);
+        agent.plan();
+
+        double exact = new PolicyEvaluator(environment, discountFactor).evaluate(agent);
+        Runner runner = new Runner();
+        RunningStatistics simulated = new RunningStatistics();
+        for(int episode=0;episode<EPISODES;episode++)
+            simulated.add(runner.runEpisode(environment, agent, discountFactor));
+
+        double tolerance = Z*simulated.getStandardError()+1e-9;
+        boolean agree = Math.abs(exact-simulated.getMean())<=tolerance;
+        System.out.format("%-28s exact %9.4f  simulated %9.4f +- %.4f  %s%n", name, exact, simulated.getMean(),
+                tolerance, agree ? "ok" : "MISMATCH");
+        return agree;
+    }
+
+    public static void main(String[] args){
+        boolean agree = true;
+
+        // Spilling is charged at the target cell, so the spill probability of the start cell never matters:
+        // the policy reaches the coffee in 4 moves and drinks it, 100*0.75^4 = 31.641
+        double[][] startSpill = new double[3][3];
+        startSpill[0][0] = 0.5;
+        agree &= check("3x3, start spill 0.5", 3, 3, startSpill, 0.75, 1);
+
+        Random random = new Random(42);
+        for(int size=5;size<=7;size++){
+            double[][] spillProbabilities = new double[size][size];
+            for(int row=0;row<size;row++)
+                for(int col=0;col<size;col++)
+                    spillProbabilities[row][col] = 0.3*random.nextDouble();
+            agree &= check(size + "x" + size + ", random spills", size, size, spillProbabilities, 0.9, size);
+        }
+
+        if(!agree){
+            System.out.println("PolicyEvaluator disagrees with simulation");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Checks that the trajectory log keeps the episodes of the slots of a batch environment apart:
+ * an agent trains on an 8-slot VectorizedCoffeeEnvironment while recording, and within every lane of the log,
+ * every episode must start at the initial state, every record must continue from the new state of the previous one,
+ * a record must start an episode exactly when the previous one ended one, and all the episodes must end.
+ * Also checks that a lane out of the range of the format is rejected. Exits with status 1 on any failure.
+ *
+ * Run with the main module's classes on the classpath, e.g.:
+ *   javac -d out src/*.java bench/src/*.java
+ *   java -cp out TrajectoryLogCheck
+ */
+public class TrajectoryLogCheck {
+    private static final int LANES = 8;
+    private static final int EPISODES = 500;
+
+    public static void main(String[] args) throws IOException {
+        double[][] spillProbabilities = Benchmarks.createSpillProbabilities(6, 6, 42);
+        for(double[] row : spillProbabilities)
+            for(int col=0;col<row.length;col++)
+                row[col] *= 0.2;
+        CoffeeEnvironment environment = new CoffeeEnvironment(6, 6, spillProbabilities, new Random(1));
+        QLambdaAgent agent = new QLambdaAgent(environment, 0.9, 0.2, 0.8, 1e-3, new Random(2));
+        VectorizedCoffeeEnvironment batch = new VectorizedCoffeeEnvironment(environment, 0.9, LANES);
+
+        Path path = Files.createTempFile("trajectories", ".trj");
+        int failures = 0;
+        try {
+            try (TrajectoryWriter writer = new TrajectoryWriter(path, environment)) {
+                agent.setTrajectoryWriter(writer);
+                new Runner().runEpisodes(batch, agent, EPISODES);
+                agent.setTrajectoryWriter(null);
+
+                try {
+                    writer.write(70000, 0, 0, 1, 0.0, false);
+                    System.out.println("Lane 70000 was not rejected");
+                    failures++;
+                } catch (IllegalArgumentException e) {
+                    // Expected: lanes are unsigned shorts
+                }
+            }
+
+            TrajectoryLog log = TrajectoryLog.open(path);
+            boolean[] inEpisode = new boolean[LANES];
+            int[] lastNewState = new int[LANES];
+            long ends = 0;
+            int lane;
+            for(long record=0;record<log.getNumRecords();record++){
+                lane = log.getLane(record);
+                if(lane>=LANES){
+                    System.out.println("Record " + record + " has lane " + lane);
+                    failures++;
+                    continue;
+                }
+                if(log.isEpisodeStart(record)==inEpisode[lane]){
+                    System.out.println("Record " + record + " of lane " + lane + " has the wrong episode start flag");
+                    failures++;
+                }
+                int expectedState = inEpisode[lane] ? lastNewState[lane] : environment.getInitialStateId();
+                if(log.getState(record)!=expectedState){
+                    System.out.println("Record " + record + " of lane " + lane + " starts at state "
+                            + log.getState(record) + " instead of " + expectedState);
+                    failures++;
+                }
+                inEpisode[lane] = !log.isEpisodeEnd(record);
+                lastNewState[lane] = log.getNewState(record);
+                if(log.isEpisodeEnd(record))
+                    ends++;
+            }
+            if(ends!=EPISODES){
+                System.out.println(ends + " episodes ended instead of " + EPISODES);
+                failures++;
+            }
+            System.out.format("%d records in %d lanes, %d episodes, %d failures%n", log.getNumRecords(), LANES,
+                    ends, failures);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+
+        if(failures>0)
+            System.exit(1);
+    }
+}
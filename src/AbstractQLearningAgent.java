@@ -1,3 +1,6 @@
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
 public abstract class AbstractQLearningAgent extends ReinforcementLearningAgent{
 
     // The table that contains the Q values
@@ -9,24 +12,144 @@ public abstract class AbstractQLearningAgent extends ReinforcementLearningAgent{
     // A counter that counts the number of calls to the learn() function
     protected int iterations;
 
+    // The learning rate after n calls to learn() is 1/n^learningRateExponent
+    static final double DEFAULT_LEARNING_RATE_EXPONENT = 0.75;
+    private double learningRateExponent;
+
+    // When several agents learn concurrently into the same Q table (see HogwildQLearning):
+    // the number of such agents, and a counter of the calls to learn() of all of them
+    private int concurrentLearners;
+    private LongAdder sharedIterations;
+
+    // Where the Q updates are recorded, or null for no instrumentation
+    private Metrics metrics;
+
+    // Experience replay: the stored transitions (null for no replay),
+    // the number of replayed transitions per call to learn(), and the generator used to draw them
+    private ReplayBuffer replayBuffer;
+    private int replaysPerStep;
+    private Random replayRandom;
+
     public AbstractQLearningAgent(CoffeeEnvironment environment,
                                   double discountFactor){
+        this(environment, discountFactor, new QValues(environment));
+    }
+
+    /**
+     * Create an agent that learns into the given Q table.
+     */
+    public AbstractQLearningAgent(CoffeeEnvironment environment,
+                                  double discountFactor,
+                                  QValues qValues){
         super(environment, discountFactor);
-        this.qValues = new QValues();
+        this.qValues = qValues;
         this.learningRate = 1;
         this.iterations = 0;
+        this.learningRateExponent = DEFAULT_LEARNING_RATE_EXPONENT;
+        this.concurrentLearners = 1;
+    }
+
+    /**
+     * Set the exponent of the learning rate schedule (0.75 by default):
+     * the learning rate after n calls to learn() is 1/n^learningRateExponent.
+     */
+    public void setLearningRateExponent(double learningRateExponent){
+        this.learningRateExponent = learningRateExponent;
+    }
+
+    /**
+     * Declare that this agent is one of the given number of agents that learn concurrently into its Q table.
+     * Every call to learn() is counted in sharedIterations, and the learning rate follows the estimated
+     * total number of updates to the table (the agent's own iterations times the number of learners),
+     * so that the shared table sees the same learning rate schedule as a single agent would.
+     */
+    void learnConcurrently(int concurrentLearners, LongAdder sharedIterations){
+        this.concurrentLearners = concurrentLearners;
+        this.sharedIterations = sharedIterations;
     }
 
     @Override
     public void learn(CoffeeWorldState state, CoffeeWorldAction action, CoffeeWorldState newState, double reward) {
+        this.learn(this.environment.stateId(state), action.id, this.environment.stateId(newState), reward);
+    }
+
+    @Override
+    public void learn(int stateId, int actionId, int newStateId, double reward) {
 
         // Update Q value
-        double newQ = this.computeNewQValue(state, action, newState,reward);
-        this.setQValue(state,action,newQ);
+        this.updateQValue(stateId,actionId,newStateId,reward);
 
         // Update learning rate
+        this.advanceLearningRate();
+
+        if(this.replayBuffer!=null){
+            this.replayBuffer.add(stateId,actionId,newStateId,reward);
+            this.replay();
+        }
+    }
+
+    /**
+     * Count a call to learn(), and update the learning rate accordingly.
+     */
+    protected void advanceLearningRate(){
         this.iterations=this.iterations+1;
-        this.learningRate = 1/(java.lang.Math.pow(this.iterations,0.75));
+        if(this.sharedIterations!=null)
+            this.sharedIterations.increment();
+        this.learningRate = learningRateAfter((double)this.iterations*this.concurrentLearners,
+                this.learningRateExponent);
+
+        if(this.metrics!=null)
+            this.metrics.recordQUpdate();
+    }
+
+    /**
+     * Apply the update rule to a single transition.
+     * @return the absolute change of the Q value.
+     */
+    private double updateQValue(int stateId, int actionId, int newStateId, double reward){
+        double oldQ = this.qValues.getQValue(stateId,actionId);
+        double newQ = this.computeNewQValue(this.environment.stateOf(stateId),
+                CoffeeWorldAction.ACTIONS[actionId],
+                this.environment.stateOf(newStateId),
+                reward);
+        this.qValues.setQValue(stateId,actionId,newQ);
+        return Math.abs(newQ-oldQ);
+    }
+
+    /**
+     * Store every transition passed to learn() in the given buffer, and after each one,
+     * re-apply the update rule to replaysPerStep transitions drawn from the buffer.
+     * With a prioritized buffer, the priority of a replayed transition is the change it made to its Q value.
+     * Replays use the current learning rate and do not advance the learning rate schedule.
+     * Pass null to stop replaying.
+     * Subclasses whose update rule supports replay make this public.
+     */
+    protected void setExperienceReplay(ReplayBuffer replayBuffer, int replaysPerStep, Random random){
+        this.replayBuffer = replayBuffer;
+        this.replaysPerStep = replaysPerStep;
+        this.replayRandom = random;
+    }
+
+    /**
+     * Replay a mini-batch of stored transitions.
+     */
+    private void replay(){
+        ReplayBuffer buffer = this.replayBuffer;
+        int slot;
+        double change;
+        for(int i=0;i<this.replaysPerStep;i++){
+            slot = buffer.sample(this.replayRandom);
+            change = this.updateQValue(buffer.getState(slot),buffer.getAction(slot),
+                    buffer.getNextState(slot),buffer.getReward(slot));
+            buffer.updatePriority(slot,change);
+        }
+    }
+
+    /**
+     * Record every call to learn() from now on in the given metrics (null to stop recording).
+     */
+    public void setMetrics(Metrics metrics){
+        this.metrics = metrics;
     }
 
     /**
@@ -36,17 +159,25 @@ public abstract class AbstractQLearningAgent extends ReinforcementLearningAgent{
         double oldQ = this.getQValue(state,action);
 
         // Get the best Q value for the actions in the next state
-        double maxQ = 0;
-        double nextActionQ;
-        for(CoffeeWorldAction nextAction : environment.getLegalActions(newState)){
-            nextActionQ = this.getQValue(newState,nextAction);
-            if(maxQ<nextActionQ)
-                maxQ = nextActionQ;
-        }
+        double maxQ = this.getMaxQValue(newState);
 
         // The Q-learning update rule
-        return this.learningRate *oldQ+ (1-this.learningRate)*
-                (reward + this.discountFactor*maxQ);
+        return qLearningUpdate(this.learningRate, oldQ, reward, this.discountFactor, maxQ);
+    }
+
+    /**
+     * The learning rate after the given number of updates: 1/updates^learningRateExponent.
+     */
+    static double learningRateAfter(double updates, double learningRateExponent){
+        return 1/(java.lang.Math.pow(updates, learningRateExponent));
+    }
+
+    /**
+     * The Q-learning update rule: the new Q value of a state and action whose Q value is oldQ,
+     * after a transition with the given reward to a state whose highest Q value is maxQ.
+     */
+    static double qLearningUpdate(double learningRate, double oldQ, double reward, double discountFactor, double maxQ){
+        return learningRate*oldQ + (1-learningRate)*(reward + discountFactor*maxQ);
     }
 
     /**
@@ -56,6 +187,15 @@ public abstract class AbstractQLearningAgent extends ReinforcementLearningAgent{
         return this.learningRate;
     }
 
+    /**
+     * The step size of the update rule: the weight of the new estimate, 1-learningRate
+     * (the update rule keeps learningRate of the old Q value).
+     * Agents with their own update rule use it as Q += alpha()*error, to follow the same schedule.
+     */
+    protected double alpha(){
+        return 1-this.learningRate;
+    }
+
     /**
      * Get the learning rate parameter
      */
@@ -78,4 +218,49 @@ public abstract class AbstractQLearningAgent extends ReinforcementLearningAgent{
     protected void setQValue(CoffeeWorldState state, CoffeeWorldAction action, double newValue){
         this.qValues.setQValue(state,action,newValue);
     }
+
+    /**
+     * Continue learning from a checkpoint: the agent's Q table becomes the checkpoint's memory-mapped Q values,
+     * and its iterations and learning rate are restored.
+     * The table is copy-on-write (see MappedQValues), so learning does not change the checkpoint file.
+     */
+    public void warmStart(Checkpoint checkpoint){
+        checkpoint.checkCompatible(this.environment, this.discountFactor);
+        if(checkpoint.getQValues()==null)
+            throw new IllegalArgumentException("Checkpoint has no Q values");
+        if(checkpoint.iterations<0 || checkpoint.iterations>Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Checkpoint iterations "+checkpoint.iterations
+                    +" are out of the agent's range [0, "+Integer.MAX_VALUE+"]");
+        this.qValues = new MappedQValues(this.environment, checkpoint.getQValues());
+        this.iterations = (int) checkpoint.iterations;
+        this.learningRate = checkpoint.learningRate;
+    }
+
+    /**
+     * The number of calls to learn() so far, i.e., the number of transitions the agent learned from.
+     */
+    public int getIterations(){
+        return this.iterations;
+    }
+
+    /**
+     * The table that this agent learns into.
+     */
+    public QValues getQValues(){
+        return this.qValues;
+    }
+
+    /**
+     * Return the highest Q value of the actions legal in the given state (zero in the goal state).
+     */
+    protected double getMaxQValue(CoffeeWorldState state){
+        return this.qValues.maxQ(state);
+    }
+
+    /**
+     * Return the legal action with the highest Q value in the given state (null in the goal state).
+     */
+    protected CoffeeWorldAction getBestAction(CoffeeWorldState state){
+        return this.qValues.argmaxQ(state);
+    }
 }
@@ -0,0 +1,46 @@
+/**
+ * An MDP agent that acts greedily according to a table of V values,
+ * kept in a primitive array indexed by state id, which subclasses compute in plan().
+ */
+public abstract class AbstractValueFunctionAgent extends MDPAgent {
+
+    protected double[] vValues; // The V value of every state, indexed by state id
+
+    public AbstractValueFunctionAgent(OpenCoffeeEnvironment environment, double discountFactor){
+        super(environment, discountFactor);
+    }
+
+    /**
+     * Choose the best action to perform in the given state, according to the stored V values;
+     */
+    @Override
+    public CoffeeWorldAction chooseAction(CoffeeWorldState state) {
+        // No choosing of actions in a terminal state
+        if (this.environment.isTerminal(state))
+            return null;
+        return CoffeeWorldAction.ACTIONS[this.chooseAction(this.environment.stateId(state))];
+    }
+
+    @Override
+    public int chooseAction(int stateId) {
+        return this.getTransitionModel().bestAction(stateId, this.vValues, this.discountFactor);
+    }
+
+    /**
+     * Return the V value of the given state, after plan().
+     */
+    public double getValue(int stateId){
+        return this.vValues[stateId];
+    }
+
+    /**
+     * Return a copy of the V values, indexed by state id, after plan().
+     */
+    public double[] getVValues(){
+        return this.vValues.clone();
+    }
+
+    protected TransitionModel getTransitionModel(){
+        return ((OpenCoffeeEnvironment) this.environment).getTransitionModel();
+    }
+}
@@ -7,5 +7,47 @@ public abstract class Agent {
         this.discountFactor = discountFactor;
     }
 
+    public CoffeeEnvironment getEnvironment(){
+        return this.environment;
+    }
+
     abstract public CoffeeEnvironment.ActionOutcome act(CoffeeWorldState state);
+
+    /**
+     * Same as act(CoffeeWorldState), on state ids and without allocating an ActionOutcome.
+     * The obtained reward is written to reward[0].
+     * @return the id of the new state.
+     */
+    abstract public int act(int stateId, double[] reward);
+
+    abstract public CoffeeWorldAction chooseAction(CoffeeWorldState state);
+
+    /**
+     * Choose the action to perform in the state with the given id.
+     * @return the id of the chosen action.
+     */
+    public int chooseAction(int stateId){
+        return this.chooseAction(this.environment.stateOf(stateId)).id;
+    }
+
+    /**
+     * Choose an action for every state in stateIds. Terminal states get the action id -1.
+     */
+    public void chooseActions(int[] stateIds, int[] actionIds){
+        for(int i=0;i<stateIds.length;i++)
+            actionIds[i] = this.environment.isTerminal(stateIds[i]) ? -1 : this.chooseAction(stateIds[i]);
+    }
+
+    /**
+     * Execute one step in every running episode of the given batch environment.
+     * The buffers are owned by the caller, and have one entry per episode in the batch.
+     * The states the actions were chosen in are written to stateIds, the chosen actions to actionIds,
+     * and the outcomes to newStateIds and rewards.
+     */
+    public void act(VectorizedCoffeeEnvironment batch, int[] stateIds, int[] actionIds,
+                    int[] newStateIds, double[] rewards){
+        batch.getStateIds(stateIds);
+        this.chooseActions(stateIds,actionIds);
+        batch.step(actionIds,newStateIds,rewards);
+    }
 }
@@ -0,0 +1,29 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Q table that can be read and updated by several threads at once, without locks.
+ * Every Q value is stored as the raw bits of a double in an AtomicLongArray.
+ * Writes are ordered but relaxed (lazySet), so a thread reads its own writes at once, and eventually reads
+ * the writes of the other learners, as in Hogwild-style learning: a read may still return an older value
+ * for a while. Concurrent updates of the same entry may overwrite each other, but a value is never torn.
+ */
+public class AtomicQValues extends QValues {
+
+    private AtomicLongArray qValues;
+
+    public AtomicQValues(CoffeeEnvironment environment){
+        super(environment, null);
+        // Q value is zero for every action that was never performed (the bits of 0.0 are 0)
+        this.qValues = new AtomicLongArray(environment.getNumStates()*CoffeeWorldAction.NUM_ACTIONS);
+    }
+
+    @Override
+    public double getQValue(int stateId, int actionId){
+        return Double.longBitsToDouble(this.qValues.get(stateId*CoffeeWorldAction.NUM_ACTIONS+actionId));
+    }
+
+    @Override
+    public void setQValue(int stateId, int actionId, double newValue){
+        this.qValues.lazySet(stateId*CoffeeWorldAction.NUM_ACTIONS+actionId, Double.doubleToRawLongBits(newValue));
+    }
+}
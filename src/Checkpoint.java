@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary checkpoint of a Q table and/or a table of V values.
+ *
+ * The file starts with a HEADER_SIZE bytes header (little endian):
+ * magic (int), version (int), rows (int), cols (int), discount factor (double),
+ * iterations (long), learning rate (double), number of Q values (long), number of V values (long).
+ * It is followed by the Q values (indexed by stateId*NUM_ACTIONS+actionId) and then the V values
+ * (indexed by state id), as little endian doubles.
+ *
+ * Checkpoints are written with a FileChannel to a temporary file next to the target, which is forced to the disk
+ * and then atomically renamed over the target. So a crash during save() never destroys the previous checkpoint,
+ * and saving over a checkpoint that is still mapped (e.g., the one an agent was warm started from) is safe:
+ * the mapping keeps the old file's contents. Checkpoints are loaded by memory-mapping the file read-only, so even a large
+ * table is usable right away: its pages are read from the file only when they are accessed.
+ * An agent that keeps learning into a loaded Q table does so through a MappedQValues,
+ * which copies a block of the table on its first write, so the file is never changed.
+ * A checkpoint is mapped as a single region, so the file is limited to 2GB
+ * (about 268 million Q and V values in total); load() rejects larger files.
+ */
+public class Checkpoint {
+    public static final int MAGIC = 0x314C5241; // "ARL1"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    public int rows;
+    public int cols;
+    public double discountFactor;
+    public long iterations;
+    public double learningRate;
+
+    private DoubleBuffer qValues; // null if the checkpoint has no Q values
+    private DoubleBuffer vValues; // null if the checkpoint has no V values
+
+    private Checkpoint(){
+    }
+
+    /**
+     * Save the Q table, iterations and learning rate of the given agent.
+     */
+    public static void save(Path path, AbstractQLearningAgent agent) throws IOException {
+        save(path, agent.environment, agent.getDiscountFactor(), agent.iterations, agent.getLearningRate(),
+                agent.getQValues(), null);
+    }
+
+    /**
+     * Save the V values of the given agent, after plan().
+     */
+    public static void save(Path path, ValueIterationAgent agent) throws IOException {
+        save(path, agent.environment, agent.discountFactor, 0, 0, null, agent.getVValues());
+    }
+
+    /**
+     * Save the V values of the given array-based planner (e.g., a PolicyIterationAgent), after plan().
+     */
+    public static void save(Path path, AbstractValueFunctionAgent agent) throws IOException {
+        save(path, agent.environment, agent.discountFactor, 0, 0, null, agent.getVValues());
+    }
+
+    /**
+     * Save a checkpoint of the given tables. Either table may be null.
+     */
+    public static void save(Path path, CoffeeEnvironment environment, double discountFactor,
+                            long iterations, double learningRate,
+                            QValues qValues, double[] vValues) throws IOException {
+        int numStates = environment.getNumStates();
+        long numQValues = qValues==null ? 0 : (long) numStates*CoffeeWorldAction.NUM_ACTIONS;
+        long numVValues = vValues==null ? 0 : vValues.length;
+
+        Path directory = path.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        boolean saved = false;
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(environment.rows);
+            buffer.putInt(environment.cols);
+            buffer.putDouble(discountFactor);
+            buffer.putLong(iterations);
+            buffer.putDouble(learningRate);
+            buffer.putLong(numQValues);
+            buffer.putLong(numVValues);
+            buffer.position(HEADER_SIZE);
+
+            if(qValues!=null)
+                for(int s=0;s<numStates;s++)
+                    for(int a=0;a<CoffeeWorldAction.NUM_ACTIONS;a++)
+                        putDouble(channel,buffer,qValues.getQValue(s,a));
+            if(vValues!=null)
+                for(double v : vValues)
+                    putDouble(channel,buffer,v);
+
+            buffer.flip();
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+            saved = true;
+        } finally {
+            if(!saved)
+                Files.deleteIfExists(temporary);
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    /**
+     * Add a double to the write buffer, writing the buffer to the channel when it is full.
+     */
+    private static void putDouble(FileChannel channel, ByteBuffer buffer, double value) throws IOException {
+        if(buffer.remaining()<Double.BYTES){
+            buffer.flip();
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+        buffer.putDouble(value);
+    }
+
+    /**
+     * Memory-map a checkpoint file.
+     */
+    public static Checkpoint load(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            if(channel.size()>Integer.MAX_VALUE)
+                throw new IOException("Checkpoint is too large to map: "+path);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if(buffer.getInt()!=MAGIC)
+                throw new IOException("Not a checkpoint file: "+path);
+            int version = buffer.getInt();
+            if(version!=VERSION)
+                throw new IOException("Unsupported checkpoint version "+version+": "+path);
+
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.rows = buffer.getInt();
+            checkpoint.cols = buffer.getInt();
+            checkpoint.discountFactor = buffer.getDouble();
+            checkpoint.iterations = buffer.getLong();
+            checkpoint.learningRate = buffer.getDouble();
+            long numQValues = buffer.getLong();
+            long numVValues = buffer.getLong();
+            if(HEADER_SIZE+(numQValues+numVValues)*Double.BYTES!=channel.size())
+                throw new IOException("Truncated checkpoint file: "+path);
+
+            // The mapping stays valid after the channel is closed
+            buffer.position(HEADER_SIZE);
+            DoubleBuffer values = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            if(numQValues>0){
+                values.limit((int) numQValues);
+                checkpoint.qValues = values.slice();
+            }
+            if(numVValues>0){
+                values.limit((int) (numQValues+numVValues));
+                values.position((int) numQValues);
+                checkpoint.vValues = values.slice();
+            }
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Check that this checkpoint was taken in a world of the same size as the given environment,
+     * with the given discount factor (Q and V values depend on both).
+     */
+    public void checkCompatible(CoffeeEnvironment environment, double discountFactor){
+        if(this.rows!=environment.rows || this.cols!=environment.cols)
+            throw new IllegalArgumentException("Checkpoint of a "+this.rows+"x"+this.cols
+                    +" grid does not fit a "+environment.rows+"x"+environment.cols+" grid");
+        if(this.discountFactor!=discountFactor)
+            throw new IllegalArgumentException("Checkpoint with discount factor "+this.discountFactor
+                    +" does not fit discount factor "+discountFactor);
+    }
+
+    /**
+     * The mapped Q values, or null if the checkpoint has none.
+     */
+    public DoubleBuffer getQValues(){
+        return this.qValues;
+    }
+
+    /**
+     * The mapped V values, or null if the checkpoint has none.
+     */
+    public DoubleBuffer getVValues(){
+        return this.vValues;
+    }
+}
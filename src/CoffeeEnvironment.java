@@ -1,6 +1,7 @@
 import javax.swing.*;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
@@ -27,6 +28,7 @@ public class CoffeeEnvironment {
     public int rows; // Number of rows in the grid
     public int cols; // Numver of columns in the grid
     private double spillProbability[][]; // The probability to spill the coffee in each grid cell
+    private volatile int spillVersion; // Incremented whenever spill probabilities change after construction
 
     // All the non-goal states
     protected CoffeeWorldState states[][];
@@ -37,11 +39,31 @@ public class CoffeeEnvironment {
 
     protected CoffeeWorldState goalState; // This is a dummy state representing the happiness after drinking the coffee
 
+    // States are identified by an int id: row*cols+col for grid cells, and rows*cols for the goal state
+    private int goalStateId;
+    private int coffeeAtHandStateId;
+
+    // For every state id, a bit mask of its legal actions (bit i is set if CoffeeWorldAction.ACTIONS[i] is legal)
+    private byte[] legalActionMasks;
+
+    // For every possible mask, an immutable list of the actions in it
+    private static final List<CoffeeWorldAction>[] LEGAL_ACTION_LISTS = createLegalActionLists();
+
     public CoffeeEnvironment(int rows, int cols, double[][] spillProbability){
-        this.randomGenerator = new Random();
+        this(rows, cols, spillProbability, new Random());
+    }
+
+    /**
+     * Create an environment that draws the spills from the given random generator.
+     */
+    public CoffeeEnvironment(int rows, int cols, double[][] spillProbability, Random randomGenerator){
+        this.randomGenerator = randomGenerator;
         this.rows = rows;
         this.cols = cols;
-        this.spillProbability = spillProbability;
+        // A private copy, so that changing the probabilities of one environment does not change the others
+        this.spillProbability = new double[rows][];
+        for(int i=0;i<rows;i++)
+            this.spillProbability[i] = spillProbability[i].clone();
 
         // Create the states
         this.states = new CoffeeWorldState[this.rows][this.cols];
@@ -53,6 +75,146 @@ public class CoffeeEnvironment {
         this.initialState = this.states[0][0];
         this.coffeeAtHandState = this.states[rows-1][cols-1];
         this.goalState = new CoffeeWorldState(rows, cols);
+        this.goalStateId = rows*cols;
+        this.coffeeAtHandStateId = this.stateId(rows-1,cols-1);
+
+        // Precompute the legal actions of every state
+        this.legalActionMasks = new byte[this.goalStateId+1];
+        for(int i =0; i<this.rows;i++)
+            for (int j = 0; j < this.cols; j++) {
+                int mask = 0;
+                if (this.coffeeAtHandState.equals(this.states[i][j]))
+                    mask = 1 << CoffeeWorldAction.DRINK_COFFEE.id;
+                else {
+                    for (CoffeeWorldAction action : CoffeeWorldAction.MOVE_ACTIONS)
+                        if (this.isLegal(this.states[i][j], action))
+                            mask |= 1 << action.id;
+                }
+                this.legalActionMasks[this.stateId(i, j)] = (byte) mask;
+            }
+    }
+
+    /**
+     * Return a copy of this environment, with the same grid and spill probabilities,
+     * that draws the spills from the given random generator.
+     */
+    public CoffeeEnvironment copy(Random randomGenerator){
+        return new CoffeeEnvironment(this.rows, this.cols, this.spillProbability, randomGenerator);
+    }
+
+    /**
+     * The environment's own spill probabilities grid, for subclasses that expose or change it.
+     * After changing it, call spillProbabilitiesChanged().
+     */
+    protected double[][] getSpillProbabilities(){
+        return this.spillProbability;
+    }
+
+    /**
+     * Record that the spill probabilities changed, so that copies of them (e.g., in a
+     * VectorizedCoffeeEnvironment) are refreshed.
+     */
+    protected void spillProbabilitiesChanged(){
+        this.spillVersion++;
+    }
+
+    /**
+     * A counter of the changes to the spill probabilities.
+     */
+    int getSpillVersion(){
+        return this.spillVersion;
+    }
+
+    /**
+     * Restart the environment's random generator from the given seed,
+     * so that the spills that follow are reproducible.
+     */
+    public void setSeed(long seed){
+        this.randomGenerator.setSeed(seed);
+    }
+
+    /**
+     * The seed of the given episode in a run with the given seed. Every episode gets its own
+     * deterministic stream, and the streams of different episodes are independent (as in SplitMix64).
+     */
+    public static long episodeSeed(long seed, long episode){
+        return SplitMix64.mix(seed + (episode+1)*SplitMix64.GOLDEN_GAMMA);
+    }
+
+    /**
+     * Create an immutable list of actions for every possible legal action mask.
+     * Java cannot create an array of a generic type, so the array is created raw;
+     * it only ever holds lists of CoffeeWorldAction.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<CoffeeWorldAction>[] createLegalActionLists(){
+        List<CoffeeWorldAction>[] lists = new List[1 << CoffeeWorldAction.NUM_ACTIONS];
+        for(int mask=0;mask<lists.length;mask++){
+            List<CoffeeWorldAction> actions = new ArrayList<>(Integer.bitCount(mask));
+            for (CoffeeWorldAction action : CoffeeWorldAction.ACTIONS)
+                if (((mask >> action.id) & 1) != 0)
+                    actions.add(action);
+            lists[mask] = Collections.unmodifiableList(actions);
+        }
+        return lists;
+    }
+
+    /**
+     * The actions in the given bit mask over action ids, as a shared immutable list.
+     */
+    public static List<CoffeeWorldAction> actionsOf(int mask){
+        return LEGAL_ACTION_LISTS[mask];
+    }
+
+    /**
+     * The number of states, including the goal state. State ids are in [0, getNumStates()).
+     */
+    public int getNumStates(){
+        return this.goalStateId+1;
+    }
+
+    /**
+     * The id of the state where the robot is at location (row,col) with coffee.
+     */
+    public int stateId(int row, int col){
+        return row*this.cols+col;
+    }
+
+    /**
+     * The id of the given state.
+     */
+    public int stateId(CoffeeWorldState state){
+        if(state.robotAtRow>=this.rows)
+            return this.goalStateId;
+        return this.stateId(state.robotAtRow,state.robotAtCol);
+    }
+
+    /**
+     * The state that has the given id.
+     */
+    public CoffeeWorldState stateOf(int stateId){
+        if(stateId==this.goalStateId)
+            return this.goalState;
+        return this.states[stateId/this.cols][stateId%this.cols];
+    }
+
+    public int getInitialStateId(){
+        return 0;
+    }
+
+    public int getGoalStateId(){
+        return this.goalStateId;
+    }
+
+    public boolean isTerminal(int stateId){
+        return stateId==this.goalStateId;
+    }
+
+    /**
+     * The legal actions of the given state, as a bit mask over action ids.
+     */
+    public int legalActionMask(int stateId){
+        return this.legalActionMasks[stateId];
     }
 
     /**
@@ -102,18 +264,14 @@ public class CoffeeEnvironment {
      * Get all the legal actions for a given state.
      */
     public List<CoffeeWorldAction> getLegalActions(CoffeeWorldState state){
-        List<CoffeeWorldAction> legalActions = new ArrayList<>(4);
+        return this.getLegalActions(this.stateId(state));
+    }
 
-        if(this.coffeeAtHandState.equals(state)){
-            legalActions.add(CoffeeWorldAction.DRINK_COFFEE);
-        }
-        else {
-            for (CoffeeWorldAction action : CoffeeWorldAction.MOVE_ACTIONS) {
-                if (this.isLegal(state, action))
-                    legalActions.add(action);
-            }
-        }
-        return legalActions;
+    /**
+     * Get all the legal actions for a given state id. The returned list is shared and immutable.
+     */
+    public List<CoffeeWorldAction> getLegalActions(int stateId){
+        return actionsOf(this.legalActionMasks[stateId]);
     }
 
 
@@ -142,6 +300,51 @@ public class CoffeeEnvironment {
         }
     }
 
+    /**
+     * Same as getReward(CoffeeWorldState, CoffeeWorldAction), on state and action ids.
+     */
+    public double getReward(int stateId, int actionId){
+        if (stateId==this.coffeeAtHandStateId && actionId==CoffeeWorldAction.DRINK_COFFEE.id)
+            return 100.0;
+        else return 0.0;
+    }
+
+    /**
+     * Same as apply(), but on state and action ids, and without allocating an ActionOutcome.
+     * The obtained reward is written to reward[0], where reward is a buffer owned by the caller.
+     * @return the id of the new state.
+     */
+    public int step(int stateId, int actionId, double[] reward){
+        return this.step(stateId,actionId,reward,this.randomGenerator);
+    }
+
+    /**
+     * Same as step(int, int, double[]), drawing the spill from the given random generator
+     * instead of the environment's own. This lets several threads step the same environment
+     * without contending on a shared generator.
+     */
+    public int step(int stateId, int actionId, double[] reward, Random randomGenerator){
+        // Check if this is the last action -- drink coffee
+        reward[0] = this.getReward(stateId,actionId);
+        if (actionId==CoffeeWorldAction.DRINK_COFFEE.id) {
+            assert (stateId==this.coffeeAtHandStateId);
+            return this.goalStateId;
+        }
+
+        // Else, this is regular move action.
+        CoffeeWorldAction action = CoffeeWorldAction.ACTIONS[actionId];
+        int newRow = stateId/this.cols + action.deltaRows;
+        int newCol = stateId%this.cols + action.deltaCols;
+
+        assert(((this.legalActionMasks[stateId]>>actionId)&1)!=0);
+        if(randomGenerator.nextFloat()>this.spillProbability[newRow][newCol]){
+            return this.stateId(newRow,newCol);
+        }
+        else{ // Spilled the coffee
+            return this.goalStateId;
+        }
+    }
+
     // A getter for the initial state
     public CoffeeWorldState getInitialState() {
         return this.initialState;
@@ -1,17 +1,23 @@
 public class CoffeeWorldAction {
-    public static CoffeeWorldAction UP = new CoffeeWorldAction("Down", +1,0);
-    public static CoffeeWorldAction DOWN = new CoffeeWorldAction("Up", -1,0);
-    public static CoffeeWorldAction RIGHT = new CoffeeWorldAction("Right", 0,+1);
-    public static CoffeeWorldAction LEFT = new CoffeeWorldAction("Left", 0,-1);
+    public static CoffeeWorldAction UP = new CoffeeWorldAction("Down", 0, +1,0);
+    public static CoffeeWorldAction DOWN = new CoffeeWorldAction("Up", 1, -1,0);
+    public static CoffeeWorldAction RIGHT = new CoffeeWorldAction("Right", 2, 0,+1);
+    public static CoffeeWorldAction LEFT = new CoffeeWorldAction("Left", 3, 0,-1);
     public static CoffeeWorldAction[] MOVE_ACTIONS = new CoffeeWorldAction[]{UP, DOWN, RIGHT, LEFT};
-    public static CoffeeWorldAction DRINK_COFFEE = new CoffeeWorldAction("Drink coffee", +1,+1);
+    public static CoffeeWorldAction DRINK_COFFEE = new CoffeeWorldAction("Drink coffee", 4, +1,+1);
+
+    // All the actions, indexed by their id
+    public static CoffeeWorldAction[] ACTIONS = new CoffeeWorldAction[]{UP, DOWN, RIGHT, LEFT, DRINK_COFFEE};
+    public static final int NUM_ACTIONS = 5;
 
     public String name;
+    public int id; // The index of this action in ACTIONS
     public int deltaRows;
     public int deltaCols;
 
-    private CoffeeWorldAction(String name, int deltaRows, int deltaCols){
+    private CoffeeWorldAction(String name, int id, int deltaRows, int deltaCols){
         this.name=name;
+        this.id = id;
         this.deltaRows = deltaRows;
         this.deltaCols = deltaCols;
     }
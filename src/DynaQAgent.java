@@ -0,0 +1,180 @@
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An epsilon-greedy Dyna-Q agent. Besides the Q-learning update of every real transition,
+ * it records the transitions in a TabularModel, and after each real step it performs planningSteps
+ * simulated backups: a previously performed (state, action) pair is drawn uniformly, and its Q value
+ * moves towards its expected value under the model with the same step size as a real update (alpha()).
+ * Every real step thus spreads the reward much further than a single backup would.
+ *
+ * With startBackgroundPlanning(), the simulated backups run on a separate thread instead, on a model of its own:
+ * the learning thread hands every transition over through an ObservationQueue, and the planning thread
+ * records the new transitions in its model and performs planningSteps backups for every transition it takes,
+ * so there are still planningSteps backups per real step. When the planner falls behind, the queue fills up
+ * and the learning thread waits for it. The planner parks while no transitions arrive.
+ * Both threads write to the Q table at once, so it must be an AtomicQValues. The step size of the backups is
+ * published to the planner through a volatile field, as the learning rate schedule advances on the learning thread.
+ */
+public class DynaQAgent extends AbstractQLearningAgent {
+    private double epsilon;
+    private int planningSteps;
+    private Random randomGenerator;
+
+    private TabularModel model;
+    private LongAdder planningBackups;
+
+    // Background planning: the planning thread (null if planning is done on the learning thread),
+    // and the queue that hands the observed transitions over to it
+    private Thread planner;
+    private ObservationQueue observations;
+    private volatile double plannerAlpha; // The step size of the background backups, alpha() of the last real step
+
+    public DynaQAgent(CoffeeEnvironment environment, double discountFactor, double epsilon,
+                      int planningSteps, Random randomGenerator){
+        this(environment, discountFactor, epsilon, planningSteps, randomGenerator, new QValues(environment));
+    }
+
+    /**
+     * Create an agent that learns into the given Q table.
+     */
+    public DynaQAgent(CoffeeEnvironment environment, double discountFactor, double epsilon,
+                      int planningSteps, Random randomGenerator, QValues qValues){
+        super(environment, discountFactor, qValues);
+        this.epsilon = epsilon;
+        this.planningSteps = planningSteps;
+        this.randomGenerator = randomGenerator;
+        this.model = new TabularModel(environment.getNumStates());
+        this.planningBackups = new LongAdder();
+    }
+
+    /**
+     * Choose a random legal action with probability epsilon, and otherwise the one with the highest Q value.
+     */
+    @Override
+    public CoffeeWorldAction chooseAction(CoffeeWorldState state) {
+        return CoffeeWorldAction.ACTIONS[this.chooseAction(this.environment.stateId(state))];
+    }
+
+    @Override
+    public int chooseAction(int stateId) {
+        if(this.randomGenerator.nextDouble()<this.epsilon){
+            List<CoffeeWorldAction> legalActions = this.environment.getLegalActions(stateId);
+            return legalActions.get(this.randomGenerator.nextInt(legalActions.size())).id;
+        }
+        return this.getQValues().argmaxQ(stateId);
+    }
+
+    @Override
+    public void learn(int stateId, int actionId, int newStateId, double reward) {
+        super.learn(stateId, actionId, newStateId, reward);
+        this.model.observe(stateId, actionId, newStateId, reward);
+
+        if(this.planner==null)
+            this.plan(this.model, this.planningSteps, this.alpha(), this.randomGenerator);
+        else {
+            this.plannerAlpha = this.alpha();
+            this.observations.put(stateId, actionId, newStateId, reward);
+        }
+    }
+
+    /**
+     * Replay stored transitions after every real one, besides the simulated backups (see AbstractQLearningAgent).
+     */
+    @Override
+    public void setExperienceReplay(ReplayBuffer replayBuffer, int replaysPerStep, Random random){
+        super.setExperienceReplay(replayBuffer, replaysPerStep, random);
+    }
+
+    /**
+     * Perform the given number of simulated backups with the given model and step size.
+     */
+    protected void plan(TabularModel model, int backups, double alpha, Random random){
+        if(model.getNumObserved()==0)
+            return;
+        QValues qValues = this.getQValues();
+        int pair;
+        int stateId;
+        int actionId;
+        double q;
+        for(int i=0;i<backups;i++){
+            pair = model.sampleObservedPair(random);
+            stateId = pair/CoffeeWorldAction.NUM_ACTIONS;
+            actionId = pair%CoffeeWorldAction.NUM_ACTIONS;
+            q = qValues.getQValue(stateId, actionId);
+            qValues.setQValue(stateId, actionId,
+                    q + alpha*(model.qValue(stateId, actionId, qValues, this.discountFactor)-q));
+        }
+        this.planningBackups.add(backups);
+    }
+
+    /**
+     * Move the simulated backups to a background daemon thread, with a model of its own that starts as a copy
+     * of the current model. From now on, learn() hands every transition to the thread through a queue of
+     * queueCapacity transitions, and parks briefly while the queue is full.
+     */
+    public synchronized void startBackgroundPlanning(int queueCapacity, long seed){
+        if(this.planner!=null)
+            return;
+        if(!(this.getQValues() instanceof AtomicQValues))
+            throw new IllegalStateException("Background planning requires an AtomicQValues table");
+        final ObservationQueue observations = new ObservationQueue(queueCapacity);
+        final TabularModel model = this.model.copy();
+        final Random random = new Random(seed);
+        this.plannerAlpha = this.alpha();
+        this.observations = observations;
+        this.planner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int drained;
+                    if(model.getNumObserved()>0)
+                        plan(model, planningSteps, plannerAlpha, random);
+                    while(!observations.isClosed()){
+                        drained = observations.drainTo(model);
+                        if(drained>0)
+                            plan(model, planningSteps*drained, plannerAlpha, random);
+                        else
+                            observations.awaitObservations();
+                    }
+                } finally {
+                    // So that the learning thread does not wait for a planner that is gone
+                    observations.close();
+                }
+            }
+        }, "dyna-q-planner");
+        this.planner.setDaemon(true);
+        this.planner.start();
+    }
+
+    /**
+     * Stop the background planning thread, and go back to planning after every real step.
+     */
+    public synchronized void stopBackgroundPlanning(){
+        if(this.planner==null)
+            return;
+        this.observations.close();
+        try {
+            this.planner.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.planner = null;
+        this.observations = null;
+    }
+
+    /**
+     * The learned model.
+     */
+    public TabularModel getModel(){
+        return this.model;
+    }
+
+    /**
+     * The number of simulated backups performed so far.
+     */
+    public long getPlanningBackups(){
+        return this.planningBackups.sum();
+    }
+}
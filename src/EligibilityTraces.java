@@ -0,0 +1,100 @@
+import java.util.Arrays;
+
+/**
+ * A sparse set of eligibility traces, one per (state, action) pair, for Q(lambda).
+ * Only the live (non-zero) traces are stored, packed at the start of two primitive arrays,
+ * so iterating over the traces and decaying them costs time proportional to the number of live traces.
+ * A dense index array maps every (state, action) pair to its position in the packed arrays.
+ * Pairs are keyed by stateId*NUM_ACTIONS + actionId, as in QValues.
+ */
+public class EligibilityTraces {
+    private int[] keys; // The keys of the live traces, packed
+    private double[] values; // The values of the live traces, packed
+    private int[] positionOf; // The position of every key in keys, or -1 if its trace is not live
+    private int size;
+
+    public EligibilityTraces(int numStates){
+        int numKeys = numStates*CoffeeWorldAction.NUM_ACTIONS;
+        this.keys = new int[16];
+        this.values = new double[16];
+        this.positionOf = new int[numKeys];
+        Arrays.fill(this.positionOf,-1);
+        this.size = 0;
+    }
+
+    /**
+     * Set the trace of the given state and action (replacing traces).
+     */
+    public void set(int stateId, int actionId, double value){
+        int key = stateId*CoffeeWorldAction.NUM_ACTIONS+actionId;
+        int position = this.positionOf[key];
+        if(position<0){
+            if(this.size==this.keys.length){
+                this.keys = Arrays.copyOf(this.keys,2*this.size);
+                this.values = Arrays.copyOf(this.values,2*this.size);
+            }
+            position = this.size++;
+            this.keys[position] = key;
+            this.positionOf[key] = position;
+        }
+        this.values[position] = value;
+    }
+
+    /**
+     * Multiply every trace by the given factor, and drop the traces that fall below the threshold.
+     */
+    public void decay(double factor, double threshold){
+        int i = 0;
+        while(i<this.size){
+            this.values[i] *= factor;
+            if(this.values[i]<threshold)
+                this.removeAt(i); // Moves the last trace to position i
+            else
+                i++;
+        }
+    }
+
+    private void removeAt(int position){
+        this.positionOf[this.keys[position]] = -1;
+        this.size--;
+        if(position<this.size){
+            this.keys[position] = this.keys[this.size];
+            this.values[position] = this.values[this.size];
+            this.positionOf[this.keys[position]] = position;
+        }
+    }
+
+    public void clear(){
+        for(int i=0;i<this.size;i++)
+            this.positionOf[this.keys[i]] = -1;
+        this.size = 0;
+    }
+
+    /**
+     * The number of live traces.
+     */
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     * The state id of the i-th live trace.
+     */
+    public int stateAt(int i){
+        return this.keys[i]/CoffeeWorldAction.NUM_ACTIONS;
+    }
+
+    /**
+     * The action id of the i-th live trace.
+     */
+    public int actionAt(int i){
+        return this.keys[i]%CoffeeWorldAction.NUM_ACTIONS;
+    }
+
+    /**
+     * The value of the i-th live trace.
+     */
+    public double valueAt(int i){
+        return this.values[i];
+    }
+}
@@ -1,4 +1,5 @@
 import java.util.List;
+import java.util.Random;
 
 /**
  * This class should implement an epsilon-greedy agent.
@@ -16,6 +17,22 @@ public class EpsilonGreedyAgent extends AbstractQLearningAgent {
         this.epsilon = epsilon;
     }
 
+    /**
+     * Create an agent that learns into the given Q table, e.g., one shared with other agents.
+     */
+    public EpsilonGreedyAgent(CoffeeEnvironment environment, double discountFactor, double epsilon, QValues qValues) {
+        super(environment, discountFactor, qValues);
+        this.epsilon = epsilon;
+    }
+
+
+    /**
+     * Replay stored transitions after every real one (see AbstractQLearningAgent).
+     */
+    @Override
+    public void setExperienceReplay(ReplayBuffer replayBuffer, int replaysPerStep, Random random){
+        super.setExperienceReplay(replayBuffer, replaysPerStep, random);
+    }
 
     /**
      * Update the Q values with the observed (state, action, new state, reward) tuple,
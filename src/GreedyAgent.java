@@ -0,0 +1,36 @@
+/**
+ * An agent that acts greedily according to a fixed table of Q values, and never learns.
+ * Used to evaluate the policy of a learning agent, e.g., on a snapshot of its Q table,
+ * without changing the learning agent.
+ */
+public class GreedyAgent extends Agent {
+    private QValues qValues;
+
+    public GreedyAgent(CoffeeEnvironment environment, double discountFactor, QValues qValues){
+        super(environment, discountFactor);
+        this.qValues = qValues;
+    }
+
+    @Override
+    public CoffeeEnvironment.ActionOutcome act(CoffeeWorldState state){
+        return this.environment.apply(state,this.chooseAction(state));
+    }
+
+    @Override
+    public int act(int stateId, double[] reward){
+        return this.environment.step(stateId,this.chooseAction(stateId),reward);
+    }
+
+    /**
+     * Choose the legal action with the highest Q value (null in the goal state).
+     */
+    @Override
+    public CoffeeWorldAction chooseAction(CoffeeWorldState state){
+        return this.qValues.argmaxQ(state);
+    }
+
+    @Override
+    public int chooseAction(int stateId){
+        return this.qValues.argmaxQ(stateId);
+    }
+}
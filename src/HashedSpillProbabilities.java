@@ -0,0 +1,19 @@
+/**
+ * Procedural spill probabilities: the probability of every cell is a hash of its coordinates and a seed,
+ * uniformly spread in [0, maxProbability). The same seed always gives the same floor, in O(1) memory.
+ */
+public class HashedSpillProbabilities implements SpillProbabilitySource {
+    private long seed;
+    private double maxProbability;
+
+    public HashedSpillProbabilities(long seed, double maxProbability){
+        this.seed = seed;
+        this.maxProbability = maxProbability;
+    }
+
+    @Override
+    public double getSpillProbability(long row, long col) {
+        long hash = SplitMix64.mix(this.seed ^ SplitMix64.mix(row*SplitMix64.GOLDEN_GAMMA + col));
+        return (hash >>> 11) * 0x1.0p-53 * this.maxProbability;
+    }
+}
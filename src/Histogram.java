@@ -0,0 +1,111 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A lock-free histogram of non-negative long values, in the spirit of HdrHistogram.
+ * Values below 2^SUB_BUCKET_BITS are counted exactly. Larger values are counted in log-linear buckets:
+ * every power of two is split into 2^SUB_BUCKET_BITS buckets, so the relative error is below 1/2^SUB_BUCKET_BITS.
+ * Recording a value is a few atomic increments, and any number of threads can record concurrently.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (64-SUB_BUCKET_BITS)*SUB_BUCKETS;
+
+    private AtomicLongArray counts;
+    private LongAdder sum;
+    private LongAccumulator max;
+
+    public Histogram(){
+        this.counts = new AtomicLongArray(NUM_BUCKETS);
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(new LongBinaryOperator() {
+            @Override
+            public long applyAsLong(long left, long right) {
+                return Math.max(left, right);
+            }
+        }, 0);
+    }
+
+    /**
+     * Record a value. Negative values are recorded as zero.
+     */
+    public void record(long value){
+        if(value<0)
+            value = 0;
+        this.counts.incrementAndGet(bucketOf(value));
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+    private static int bucketOf(long value){
+        if(value<SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63-Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent-SUB_BUCKET_BITS)); // In [SUB_BUCKETS, 2*SUB_BUCKETS)
+        return (exponent-SUB_BUCKET_BITS+1)*SUB_BUCKETS + mantissa-SUB_BUCKETS;
+    }
+
+    /**
+     * The smallest value counted in the given bucket.
+     */
+    private static long lowestValueOf(int bucket){
+        if(bucket<SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket/SUB_BUCKETS+SUB_BUCKET_BITS-1;
+        long mantissa = bucket%SUB_BUCKETS+SUB_BUCKETS;
+        return mantissa << (exponent-SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Copy the current counts. Values recorded during the copy may or may not be included.
+     */
+    public Snapshot snapshot(){
+        long[] counts = new long[NUM_BUCKETS];
+        long count = 0;
+        for(int b=0;b<NUM_BUCKETS;b++){
+            counts[b] = this.counts.get(b);
+            count += counts[b];
+        }
+        return new Snapshot(counts, count, this.sum.sum(), this.max.get());
+    }
+
+    /**
+     * The state of a histogram at some point in time.
+     */
+    public static class Snapshot {
+        private long[] counts;
+        public long count;
+        public long sum;
+        public long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max){
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public double mean(){
+            return this.count==0 ? 0.0 : (double) this.sum/this.count;
+        }
+
+        /**
+         * The lowest value of the bucket that holds the given percentile (in [0,100]) of the recorded values.
+         */
+        public long percentile(double percentile){
+            if(this.count==0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile/100.0*this.count));
+            long seen = 0;
+            for(int b=0;b<this.counts.length;b++){
+                seen += this.counts[b];
+                if(seen>=rank)
+                    return Math.min(lowestValueOf(b), this.max);
+            }
+            return this.max;
+        }
+    }
+}
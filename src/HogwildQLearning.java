@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Trains several Q-learning agents at once, one per worker thread, all learning into the same Q table.
+ * The updates are lock-free (Hogwild-style): the table is an AtomicQValues,
+ * every worker has its own copy of the environment with its own random generator,
+ * and every agent keeps its own learning rate and iteration counter.
+ * The only other shared state is a striped counter (LongAdder) of the total number of updates.
+ */
+public class HogwildQLearning {
+
+    /**
+     * Creates the agent of a worker, given the worker's environment and the shared Q table.
+     */
+    public interface AgentFactory {
+        AbstractQLearningAgent create(CoffeeEnvironment environment, QValues qValues);
+    }
+
+    private double discountFactor;
+    private AtomicQValues qValues;
+    private LongAdder updates;
+
+    private CoffeeEnvironment[] environments;
+    private AbstractQLearningAgent[] agents;
+
+    public HogwildQLearning(CoffeeEnvironment environment, double discountFactor,
+                            int parallelism, AgentFactory agentFactory, long seed){
+        this.discountFactor = discountFactor;
+        this.qValues = new AtomicQValues(environment);
+        this.updates = new LongAdder();
+
+        SplittableRandom seeds = new SplittableRandom(seed);
+        this.environments = new CoffeeEnvironment[parallelism];
+        this.agents = new AbstractQLearningAgent[parallelism];
+        for(int w=0;w<parallelism;w++){
+            this.environments[w] = environment.copy(new Random(seeds.split().nextLong()));
+            this.agents[w] = agentFactory.create(this.environments[w], this.qValues);
+            this.agents[w].learnConcurrently(parallelism, this.updates);
+        }
+    }
+
+    /**
+     * Run the given number of training episodes, split evenly between the workers.
+     * @return the average discounted rewards collected during these episodes.
+     */
+    public double train(int episodes){
+        final Runner runner = new Runner();
+        int parallelism = this.agents.length;
+        List<Callable<Double>> workers = new ArrayList<>(parallelism);
+        for(int w=0;w<parallelism;w++){
+            final int worker = w;
+            final int workerEpisodes = episodes / parallelism + (w < episodes % parallelism ? 1 : 0);
+            workers.add(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    if(workerEpisodes==0)
+                        return 0.0;
+                    return workerEpisodes*runner.runEpisodes(environments[worker], agents[worker],
+                            discountFactor, workerEpisodes);
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            double sumOfRewards = 0.0;
+            for(Future<Double> result : pool.invokeAll(workers))
+                sumOfRewards += result.get();
+            return sumOfRewards/episodes;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Concurrent training failed", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The Q table shared by all the workers.
+     */
+    public QValues getQValues(){
+        return this.qValues;
+    }
+
+    /**
+     * The total number of calls to learn() of all the workers so far.
+     */
+    public long getUpdates(){
+        return this.updates.sum();
+    }
+
+    /**
+     * The agent of the given worker.
+     */
+    public AbstractQLearningAgent getAgent(int worker){
+        return this.agents[worker];
+    }
+}
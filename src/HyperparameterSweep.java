@@ -0,0 +1,350 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Trains and evaluates Q-learning agents with many hyperparameter configurations, concurrently.
+ * Every configuration is a job with its own environment, agent and random generators, run on a fixed pool of threads.
+ * A job trains its agent for a number of rounds of episodesPerRound episodes each. After every round, the greedy
+ * policy of the agent is scored, without learning, by the average discounted rewards (with evaluationDiscountFactor,
+ * so that configurations with different discount factors are comparable) of evaluationEpisodes episodes
+ * (see Runner.evaluateGreedy()), with a 95% confidence interval. Training and evaluation episodes are both cut
+ * after maxSteps steps, so a policy that walks in circles cannot stall its job.
+ *
+ * Configurations with the same grid size and seed train in the same world, and are compared with each other:
+ * they are evaluated with the same spill outcomes. A group is run in chunks of at most parallelism jobs, one chunk
+ * after the other, and the jobs of a chunk run their rounds in lockstep. The group keeps the best lower bound of
+ * every round seen so far, over its chunks. After each round, once all the jobs of a chunk were scored, the ones
+ * whose upper bound is lower than that best lower bound are terminated. So the pruning does not depend on the
+ * thread timing, and a sweep with the same configurations and parallelism always gives the same scores.
+ * Chunks of different groups are run together, as many as fit in parallelism jobs, so at most that many agents
+ * are in memory at once.
+ * The results are written to a CSV file by the calling thread, as soon as every job finishes: when it is terminated,
+ * or when its last round is scored. So the rows are not in the order of the configurations.
+ */
+public class HyperparameterSweep {
+    // The number of standard errors in the confidence intervals (95% confidence)
+    private static final double Z = 1.96;
+
+    /**
+     * Creates the agent of a configuration. The sweep sets the agent's learning rate exponent itself.
+     */
+    public interface AgentFactory {
+        AbstractQLearningAgent create(CoffeeEnvironment environment, Configuration configuration, Random random);
+    }
+
+    private AgentFactory agentFactory;
+    private int parallelism;
+    private int rounds;
+    private int episodesPerRound;
+    private int evaluationEpisodes;
+    private int maxSteps;
+    private double evaluationDiscountFactor;
+    private double maxSpillProbability;
+
+    /**
+     * @param maxSteps the number of steps after which a training or evaluation episode is cut.
+     */
+    public HyperparameterSweep(AgentFactory agentFactory, int parallelism, int rounds, int episodesPerRound,
+                               int evaluationEpisodes, int maxSteps, double evaluationDiscountFactor,
+                               double maxSpillProbability){
+        this.agentFactory = agentFactory;
+        this.parallelism = parallelism;
+        this.rounds = rounds;
+        this.episodesPerRound = episodesPerRound;
+        this.evaluationEpisodes = evaluationEpisodes;
+        this.maxSteps = maxSteps;
+        this.evaluationDiscountFactor = evaluationDiscountFactor;
+        this.maxSpillProbability = maxSpillProbability;
+    }
+
+    /**
+     * The running state of a configuration.
+     */
+    private class Job {
+        Configuration configuration;
+        CoffeeEnvironment environment;
+        AbstractQLearningAgent agent;
+        double[] bestLowerBounds; // The best lower bound of every round so far in the job's group, shared by the group
+        Result result;
+        RunningStatistics evaluation; // The score of the last round
+        long elapsedNanos;
+
+        Job(Configuration configuration){
+            this.configuration = configuration;
+            this.result = new Result(configuration);
+        }
+
+        /**
+         * Create the world and the agent of the configuration.
+         */
+        void start(){
+            Random random = new Random(this.configuration.seed);
+            int size = this.configuration.gridSize;
+            double[][] spillProbabilities = new double[size][size];
+            HashedSpillProbabilities floor = new HashedSpillProbabilities(this.configuration.seed,
+                    maxSpillProbability);
+            for(int row=0;row<size;row++)
+                for(int col=0;col<size;col++)
+                    spillProbabilities[row][col] = floor.getSpillProbability(row, col);
+            this.environment = new CoffeeEnvironment(size, size, spillProbabilities, new Random(random.nextLong()));
+            this.agent = agentFactory.create(this.environment, this.configuration, new Random(random.nextLong()));
+            this.agent.setLearningRateExponent(this.configuration.learningRateExponent);
+        }
+
+        /**
+         * Train the agent for a round, and score its greedy policy.
+         */
+        void runRound(int round){
+            long startTime = System.nanoTime();
+            if(this.agent==null)
+                this.start();
+            Runner runner = new Runner();
+            RunningStatistics training = new RunningStatistics();
+            for(int episode=0;episode<episodesPerRound;episode++)
+                training.add(runner.runEpisode(this.environment, this.agent, evaluationDiscountFactor, maxSteps));
+
+            // The same spill outcomes for all the configurations of the group
+            CoffeeEnvironment evaluationEnvironment = this.environment.copy(
+                    new Random(CoffeeEnvironment.episodeSeed(this.configuration.seed, round)));
+            this.evaluation = runner.evaluateGreedy(evaluationEnvironment, this.agent.getQValues(),
+                    evaluationDiscountFactor, evaluationEpisodes, maxSteps);
+
+            this.result.rounds = round+1;
+            this.result.episodes = (long) this.result.rounds*episodesPerRound;
+            this.result.trainingUtility = training.getMean();
+            this.result.averageUtility = this.evaluation.getMean();
+            this.result.halfWidth = Z*this.evaluation.getStandardError();
+            this.elapsedNanos += System.nanoTime()-startTime;
+        }
+
+        /**
+         * Drop the agent, and finish the result.
+         */
+        void finish(){
+            this.environment = null;
+            this.agent = null;
+            this.result.elapsedMillis = this.elapsedNanos/1000000;
+        }
+    }
+
+    /**
+     * Run all the given configurations, and write their results to the given CSV file.
+     * @return the results, in the order of the configurations.
+     */
+    public List<Result> run(List<Configuration> configurations, Path resultsFile) throws IOException {
+        // Group the configurations by world, in the order of their first configuration
+        Map<String, List<Job>> groups = new LinkedHashMap<>();
+        List<Job> jobs = new ArrayList<>(configurations.size());
+        for(Configuration configuration : configurations){
+            Job job = new Job(configuration);
+            String world = job.configuration.gridSize + "/" + job.configuration.seed;
+            if(!groups.containsKey(world))
+                groups.put(world, new ArrayList<Job>());
+            groups.get(world).add(job);
+            jobs.add(job);
+        }
+        for(List<Job> group : groups.values()){
+            double[] bestLowerBounds = new double[this.rounds];
+            Arrays.fill(bestLowerBounds, Double.NEGATIVE_INFINITY);
+            for(Job job : group)
+                job.bestLowerBounds = bestLowerBounds;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(this.parallelism);
+        try (BufferedWriter writer = Files.newBufferedWriter(resultsFile, StandardCharsets.UTF_8)) {
+            writer.write(Result.CSV_HEADER);
+            writer.newLine();
+            // Only the last chunk of a group can be smaller than parallelism, so chunks of a group never share a batch
+            List<List<Job>> batch = new ArrayList<>();
+            int batchJobs = 0;
+            List<Job> chunk;
+            for(List<Job> group : groups.values())
+                for(int from=0;from<group.size();from+=this.parallelism){
+                    chunk = group.subList(from, Math.min(from+this.parallelism, group.size()));
+                    if(batchJobs+chunk.size()>this.parallelism){
+                        this.runBatch(batch, pool, writer);
+                        batch.clear();
+                        batchJobs = 0;
+                    }
+                    batch.add(chunk);
+                    batchJobs += chunk.size();
+                }
+            if(!batch.isEmpty())
+                this.runBatch(batch, pool, writer);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Hyperparameter sweep failed", e);
+        } finally {
+            pool.shutdown();
+        }
+
+        List<Result> results = new ArrayList<>(jobs.size());
+        for(Job job : jobs)
+            results.add(job.result);
+        return results;
+    }
+
+    /**
+     * Run the rounds of the given chunks, all the live jobs of a round in parallel, and prune after every round.
+     */
+    private void runBatch(List<List<Job>> chunks, ExecutorService pool, BufferedWriter writer)
+            throws InterruptedException, ExecutionException, IOException {
+        List<Job> live = new ArrayList<>();
+        for(List<Job> chunk : chunks)
+            live.addAll(chunk);
+
+        CompletionService<Job> completion = new ExecutorCompletionService<>(pool);
+        for(int round=0;round<this.rounds && !live.isEmpty();round++){
+            final int currentRound = round;
+            for(final Job job : live)
+                completion.submit(new Callable<Job>() {
+                    @Override
+                    public Job call() {
+                        job.runRound(currentRound);
+                        return job;
+                    }
+                });
+            boolean lastRound = round==this.rounds-1;
+            for(int i=0;i<live.size();i++){
+                Job job = completion.take().get();
+                if(lastRound)
+                    writeResult(job, writer);
+            }
+            if(lastRound)
+                break;
+
+            List<Job> terminated = new ArrayList<>();
+            for(List<Job> chunk : chunks){
+                double[] bestLowerBounds = chunk.get(0).bestLowerBounds;
+                for(Job job : chunk)
+                    if(!job.result.terminatedEarly)
+                        bestLowerBounds[round] = Math.max(bestLowerBounds[round], job.result.getLower());
+                for(Job job : chunk)
+                    if(!job.result.terminatedEarly && job.result.getUpper()<bestLowerBounds[round]){
+                        job.result.terminatedEarly = true;
+                        terminated.add(job);
+                        writeResult(job, writer);
+                    }
+            }
+            live.removeAll(terminated);
+        }
+    }
+
+    /**
+     * Finish the given job, and write its result.
+     */
+    private static void writeResult(Job job, BufferedWriter writer) throws IOException {
+        job.finish();
+        writer.write(job.result.toCsv());
+        writer.newLine();
+        writer.flush();
+    }
+
+    /**
+     * The full grid of configurations: every combination of the given values.
+     */
+    public static List<Configuration> grid(double[] epsilons, double[] discountFactors, double[] learningRateExponents,
+                                           int[] gridSizes, long[] seeds){
+        List<Configuration> configurations = new ArrayList<>();
+        for(double epsilon : epsilons)
+            for(double discountFactor : discountFactors)
+                for(double learningRateExponent : learningRateExponents)
+                    for(int gridSize : gridSizes)
+                        for(long seed : seeds)
+                            configurations.add(new Configuration(epsilon, discountFactor, learningRateExponent,
+                                    gridSize, seed));
+        return configurations;
+    }
+
+    /**
+     * The given number of random configurations, with every parameter drawn uniformly from its range
+     * ([min, max) for the doubles, [min, max] for the grid size) and a random seed.
+     */
+    public static List<Configuration> random(int count, Random random,
+                                             double minEpsilon, double maxEpsilon,
+                                             double minDiscountFactor, double maxDiscountFactor,
+                                             double minLearningRateExponent, double maxLearningRateExponent,
+                                             int minGridSize, int maxGridSize){
+        List<Configuration> configurations = new ArrayList<>(count);
+        for(int i=0;i<count;i++)
+            configurations.add(new Configuration(
+                    minEpsilon+random.nextDouble()*(maxEpsilon-minEpsilon),
+                    minDiscountFactor+random.nextDouble()*(maxDiscountFactor-minDiscountFactor),
+                    minLearningRateExponent+random.nextDouble()*(maxLearningRateExponent-minLearningRateExponent),
+                    minGridSize+random.nextInt(maxGridSize-minGridSize+1),
+                    random.nextLong()));
+        return configurations;
+    }
+
+    /**
+     * A hyperparameter configuration. The grid is gridSize x gridSize, and its spill probabilities,
+     * like all the other random choices of the job, are derived from the seed.
+     */
+    public static class Configuration {
+        public final double epsilon;
+        public final double discountFactor;
+        public final double learningRateExponent;
+        public final int gridSize;
+        public final long seed;
+
+        public Configuration(double epsilon, double discountFactor, double learningRateExponent,
+                             int gridSize, long seed){
+            this.epsilon = epsilon;
+            this.discountFactor = discountFactor;
+            this.learningRateExponent = learningRateExponent;
+            this.gridSize = gridSize;
+            this.seed = seed;
+        }
+    }
+
+    /**
+     * The result of a configuration: the score of its last round, and how long it ran.
+     */
+    public static class Result {
+        static final String CSV_HEADER = "epsilon,discountFactor,learningRateExponent,gridSize,seed,"
+                + "rounds,episodes,trainingUtility,averageUtility,halfWidth,terminatedEarly,elapsedMillis";
+
+        public final Configuration configuration;
+        public int rounds; // The number of rounds run
+        public long episodes; // The number of training episodes run
+        public double trainingUtility; // The average discounted rewards collected while training in the last round
+        public double averageUtility; // The average discounted rewards of the greedy policy after the last round
+        public double halfWidth; // The confidence interval is averageUtility +- halfWidth
+        public boolean terminatedEarly; // True if the configuration was stopped for being clearly worse than another
+        public long elapsedMillis; // The time spent training and evaluating the configuration
+
+        private Result(Configuration configuration){
+            this.configuration = configuration;
+        }
+
+        public double getLower(){
+            return this.averageUtility - this.halfWidth;
+        }
+
+        public double getUpper(){
+            return this.averageUtility + this.halfWidth;
+        }
+
+        String toCsv(){
+            return this.configuration.epsilon + "," + this.configuration.discountFactor + ","
+                    + this.configuration.learningRateExponent + "," + this.configuration.gridSize + ","
+                    + this.configuration.seed + "," + this.rounds + "," + this.episodes + ","
+                    + this.trainingUtility + "," + this.averageUtility + "," + this.halfWidth + ","
+                    + this.terminatedEarly + "," + this.elapsedMillis;
+        }
+    }
+}
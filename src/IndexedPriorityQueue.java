@@ -0,0 +1,111 @@
+import java.util.Arrays;
+
+/**
+ * A max priority queue of int ids in [0, capacity), stored in primitive arrays.
+ * Every id is in the queue at most once, and its priority can be raised while it is in the queue.
+ */
+public class IndexedPriorityQueue {
+    private int[] heap; // A binary max-heap of ids
+    private int[] position; // The index of every id in heap, or -1 if it is not in the queue
+    private double[] priority; // The priority of every id in the queue
+    private int size;
+
+    public IndexedPriorityQueue(int capacity){
+        this.heap = new int[capacity];
+        this.position = new int[capacity];
+        this.priority = new double[capacity];
+        Arrays.fill(this.position, -1);
+        this.size = 0;
+    }
+
+    public boolean isEmpty(){
+        return this.size==0;
+    }
+
+    public int size(){
+        return this.size;
+    }
+
+    public boolean contains(int id){
+        return this.position[id]>=0;
+    }
+
+    /**
+     * Add the id with the given priority. If it is already in the queue,
+     * its priority becomes the higher of the two.
+     */
+    public void offer(int id, double priority){
+        if(this.position[id]<0){
+            this.heap[this.size] = id;
+            this.position[id] = this.size;
+            this.priority[id] = priority;
+            this.size++;
+            this.siftUp(this.size-1);
+        }
+        else if(priority>this.priority[id]){
+            this.priority[id] = priority;
+            this.siftUp(this.position[id]);
+        }
+    }
+
+    /**
+     * Remove and return the id with the highest priority.
+     */
+    public int poll(){
+        int top = this.heap[0];
+        this.size--;
+        this.position[top] = -1;
+        if(this.size>0){
+            this.heap[0] = this.heap[this.size];
+            this.position[this.heap[0]] = 0;
+            this.siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * The highest priority in the queue. The queue must not be empty.
+     */
+    public double peekPriority(){
+        return this.priority[this.heap[0]];
+    }
+
+    public void clear(){
+        for(int i=0;i<this.size;i++)
+            this.position[this.heap[i]] = -1;
+        this.size = 0;
+    }
+
+    private void siftUp(int i){
+        int id = this.heap[i];
+        double p = this.priority[id];
+        int parent;
+        while(i>0){
+            parent = (i-1) >>> 1;
+            if(this.priority[this.heap[parent]]>=p)
+                break;
+            this.heap[i] = this.heap[parent];
+            this.position[this.heap[i]] = i;
+            i = parent;
+        }
+        this.heap[i] = id;
+        this.position[id] = i;
+    }
+
+    private void siftDown(int i){
+        int id = this.heap[i];
+        double p = this.priority[id];
+        int child;
+        while((child = 2*i+1)<this.size){
+            if(child+1<this.size && this.priority[this.heap[child+1]]>this.priority[this.heap[child]])
+                child++;
+            if(p>=this.priority[this.heap[child]])
+                break;
+            this.heap[i] = this.heap[child];
+            this.position[this.heap[i]] = i;
+            i = child;
+        }
+        this.heap[i] = id;
+        this.position[id] = i;
+    }
+}
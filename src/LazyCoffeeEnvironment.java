@@ -0,0 +1,130 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A Coffee World environment for grids too large to materialize, e.g., 100k x 100k cells.
+ * It behaves like CoffeeEnvironment, but stores nothing per cell: the legal actions are computed from
+ * the coordinates, the spill probabilities come from a SpillProbabilitySource,
+ * and CoffeeWorldState objects are only created when asked for.
+ *
+ * States are identified by a long key: row*cols+col for grid cells, and rows*cols for the goal state.
+ */
+public class LazyCoffeeEnvironment {
+
+    private Random randomGenerator;
+
+    public long rows; // Number of rows in the grid
+    public long cols; // Number of columns in the grid
+    private SpillProbabilitySource spillProbabilities;
+
+    private long goalStateKey;
+    private long coffeeAtHandStateKey;
+
+    public LazyCoffeeEnvironment(long rows, long cols, SpillProbabilitySource spillProbabilities){
+        this(rows, cols, spillProbabilities, new Random());
+    }
+
+    public LazyCoffeeEnvironment(long rows, long cols, SpillProbabilitySource spillProbabilities,
+                                 Random randomGenerator){
+        if(rows>Integer.MAX_VALUE || cols>Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Grid of "+rows+"x"+cols+" is too large");
+        this.randomGenerator = randomGenerator;
+        this.rows = rows;
+        this.cols = cols;
+        this.spillProbabilities = spillProbabilities;
+        this.goalStateKey = rows*cols;
+        this.coffeeAtHandStateKey = this.stateKey(rows-1,cols-1);
+    }
+
+    public long stateKey(long row, long col){
+        return row*this.cols+col;
+    }
+
+    public long stateKey(CoffeeWorldState state){
+        if(state.robotAtRow>=this.rows)
+            return this.goalStateKey;
+        return this.stateKey(state.robotAtRow,state.robotAtCol);
+    }
+
+    /**
+     * Create the state that has the given key.
+     */
+    public CoffeeWorldState stateOf(long stateKey){
+        if(stateKey==this.goalStateKey)
+            return new CoffeeWorldState((int) this.rows, (int) this.cols);
+        return new CoffeeWorldState((int) (stateKey/this.cols), (int) (stateKey%this.cols));
+    }
+
+    public long getInitialStateKey(){
+        return 0;
+    }
+
+    public long getGoalStateKey(){
+        return this.goalStateKey;
+    }
+
+    public boolean isTerminal(long stateKey){
+        return stateKey==this.goalStateKey;
+    }
+
+    /**
+     * The legal actions of the given state, as a bit mask over action ids.
+     */
+    public int legalActionMask(long stateKey){
+        if(stateKey==this.goalStateKey)
+            return 0;
+        if(stateKey==this.coffeeAtHandStateKey)
+            return 1 << CoffeeWorldAction.DRINK_COFFEE.id;
+
+        long row = stateKey/this.cols;
+        long col = stateKey%this.cols;
+        int mask = 0;
+        for(CoffeeWorldAction action : CoffeeWorldAction.MOVE_ACTIONS){
+            long newRow = row + action.deltaRows;
+            long newCol = col + action.deltaCols;
+            if(newRow>=0 && newRow<this.rows && newCol>=0 && newCol<this.cols)
+                mask |= 1 << action.id;
+        }
+        return mask;
+    }
+
+    /**
+     * Get all the legal actions for a given state. The returned list is shared and immutable.
+     */
+    public List<CoffeeWorldAction> getLegalActions(long stateKey){
+        return CoffeeEnvironment.actionsOf(this.legalActionMask(stateKey));
+    }
+
+    public double getReward(long stateKey, int actionId){
+        if (stateKey==this.coffeeAtHandStateKey && actionId==CoffeeWorldAction.DRINK_COFFEE.id)
+            return 100.0;
+        else return 0.0;
+    }
+
+    /**
+     * Apply an action to a state, as in CoffeeEnvironment.step().
+     * The obtained reward is written to reward[0].
+     * @return the key of the new state.
+     */
+    public long step(long stateKey, int actionId, double[] reward){
+        // Check if this is the last action -- drink coffee
+        reward[0] = this.getReward(stateKey,actionId);
+        if (actionId==CoffeeWorldAction.DRINK_COFFEE.id) {
+            assert (stateKey==this.coffeeAtHandStateKey);
+            return this.goalStateKey;
+        }
+
+        // Else, this is regular move action.
+        CoffeeWorldAction action = CoffeeWorldAction.ACTIONS[actionId];
+        long newRow = stateKey/this.cols + action.deltaRows;
+        long newCol = stateKey%this.cols + action.deltaCols;
+
+        assert(((this.legalActionMask(stateKey)>>actionId)&1)!=0);
+        if(this.randomGenerator.nextFloat()>this.spillProbabilities.getSpillProbability(newRow,newCol)){
+            return this.stateKey(newRow,newCol);
+        }
+        else{ // Spilled the coffee
+            return this.goalStateKey;
+        }
+    }
+}
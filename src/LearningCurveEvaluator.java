@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the learning curve of a Q-learning agent while it trains, without pausing or disturbing it.
+ * evaluate() takes a snapshot of the agent's Q table (an epoch), and queues the evaluation of the greedy
+ * policy of that snapshot on background daemon threads, with a GreedyAgent on a private copy of the environment.
+ * Evaluation episodes therefore never call learn(), and training continues while they run.
+ * The agent must learn into a SnapshottableQValues, whose snapshots are copy-on-write, so taking one does not
+ * copy the table.
+ * If the evaluations fall behind, at most maxPending snapshots wait, and the oldest ones are dropped
+ * (and counted, see getDroppedEvaluations()).
+ * Every evaluated point (utility vs. the number of transitions learned from) is passed to the listener, if any,
+ * as soon as it is ready.
+ */
+public class LearningCurveEvaluator {
+
+    /**
+     * Receives the points of the learning curve, on the evaluation threads.
+     */
+    public interface Listener {
+        void onPoint(Point point);
+    }
+
+    private AbstractQLearningAgent agent;
+    private double discountFactor;
+    private int episodesPerEvaluation;
+    private int maxSteps;
+    private SplittableRandom seeds;
+
+    private ThreadPoolExecutor executor;
+    private AtomicLong droppedEvaluations;
+    private List<Point> curve;
+    private volatile Listener listener;
+
+    /**
+     * @param agent an agent that learns into a SnapshottableQValues.
+     * @param maxSteps the number of steps after which an evaluation episode is cut, since a greedy policy
+     *                 learned so far might walk in circles on cells where the coffee never spills.
+     */
+    public LearningCurveEvaluator(AbstractQLearningAgent agent, double discountFactor, int episodesPerEvaluation,
+                                  int maxSteps, int threads, int maxPending, long seed){
+        if(!(agent.getQValues() instanceof SnapshottableQValues))
+            throw new IllegalArgumentException("The agent must learn into a SnapshottableQValues, got a "
+                    +agent.getQValues().getClass().getSimpleName());
+        this.agent = agent;
+        this.discountFactor = discountFactor;
+        this.episodesPerEvaluation = episodesPerEvaluation;
+        this.maxSteps = maxSteps;
+        this.seeds = new SplittableRandom(seed);
+        this.curve = new ArrayList<>();
+        this.droppedEvaluations = new AtomicLong();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxPending), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "learning-curve-evaluator");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.DiscardOldestPolicy() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                        if(executor.isShutdown())
+                            throw new IllegalStateException("The learning curve evaluator is finished");
+                        droppedEvaluations.incrementAndGet();
+                        super.rejectedExecution(runnable, executor);
+                    }
+                });
+    }
+
+    public void setListener(Listener listener){
+        this.listener = listener;
+    }
+
+    /**
+     * Snapshot the agent's Q table now, and queue the evaluation of its greedy policy.
+     * Must be called from the thread that trains the agent, and not after finish(), which throws an IllegalStateException.
+     */
+    public void evaluate(){
+        if(this.executor.isShutdown())
+            throw new IllegalStateException("The learning curve evaluator is finished");
+        final long samples = this.agent.getIterations();
+        final QValues snapshot = this.agent.getQValues().snapshot();
+        final long seed = this.seeds.nextLong();
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Point point = evaluate(samples, snapshot, seed);
+                synchronized (curve) {
+                    curve.add(point);
+                }
+                Listener listener = LearningCurveEvaluator.this.listener;
+                if(listener!=null)
+                    listener.onPoint(point);
+            }
+        });
+    }
+
+    /**
+     * Run the given number of training episodes with the agent, and evaluate it after every episodesPerEpoch
+     * episodes, and at the end.
+     * @return the average discounted rewards collected during training.
+     */
+    public double train(Runner runner, int episodes, int episodesPerEpoch){
+        CoffeeEnvironment environment = this.agent.getEnvironment();
+        double sumOfRewards = 0;
+        for(int episode=1;episode<=episodes;episode++){
+            sumOfRewards += runner.runEpisode(environment, this.agent, this.discountFactor);
+            if(episode%episodesPerEpoch==0 || episode==episodes)
+                this.evaluate();
+        }
+        return sumOfRewards/episodes;
+    }
+
+    /**
+     * Wait up to timeoutMillis for the queued evaluations to finish, and stop the evaluation threads.
+     * Throws an IllegalStateException if the evaluations did not finish in time (they are then cancelled),
+     * so that a truncated curve is never mistaken for a complete one; getCurve() still returns the points evaluated.
+     * @return the learning curve, ordered by the number of samples.
+     */
+    public List<Point> finish(long timeoutMillis){
+        this.executor.shutdown();
+        boolean finished;
+        try {
+            finished = this.executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finished = false;
+        }
+        if(!finished){
+            int cancelled = this.executor.shutdownNow().size();
+            throw new IllegalStateException("Learning curve evaluations did not finish in "+timeoutMillis
+                    +" ms; "+cancelled+" queued evaluations were cancelled");
+        }
+        return this.getCurve();
+    }
+
+    /**
+     * The number of snapshots that were dropped before being evaluated, because the evaluations fell behind.
+     */
+    public long getDroppedEvaluations(){
+        return this.droppedEvaluations.get();
+    }
+
+    /**
+     * The points evaluated so far, ordered by the number of samples.
+     */
+    public List<Point> getCurve(){
+        List<Point> points;
+        synchronized (this.curve) {
+            points = new ArrayList<>(this.curve);
+        }
+        Collections.sort(points, new Comparator<Point>() {
+            @Override
+            public int compare(Point first, Point second) {
+                return Long.compare(first.samples, second.samples);
+            }
+        });
+        return points;
+    }
+
+    /**
+     * Evaluate the greedy policy of a snapshot.
+     */
+    private Point evaluate(long samples, QValues snapshot, long seed){
+        CoffeeEnvironment environment = this.agent.getEnvironment().copy(new Random(seed));
+        RunningStatistics statistics = new Runner().evaluateGreedy(environment, snapshot, this.discountFactor,
+                this.episodesPerEvaluation, this.maxSteps);
+        return new Point(samples, statistics.getMean(), 1.96*statistics.getStandardError());
+    }
+
+    /**
+     * A point of the learning curve: the average discounted rewards of the greedy policy
+     * after learning from the given number of transitions, +- a 95% confidence half-width.
+     */
+    public static class Point {
+        public final long samples;
+        public final double averageUtility;
+        public final double halfWidth;
+
+        private Point(long samples, double averageUtility, double halfWidth){
+            this.samples = samples;
+            this.averageUtility = averageUtility;
+            this.halfWidth = halfWidth;
+        }
+    }
+}
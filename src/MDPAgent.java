@@ -12,6 +12,12 @@ abstract public class MDPAgent extends Agent{
         return this.environment.apply(state,action);
     }
 
+    @Override
+    public int act(int stateId, double[] reward){
+        int actionId = this.chooseAction(stateId);
+        return this.environment.step(stateId,actionId,reward);
+    }
+
     abstract public CoffeeWorldAction chooseAction(CoffeeWorldState state);
     abstract public void plan();
 }
@@ -0,0 +1,67 @@
+import java.nio.DoubleBuffer;
+
+/**
+ * A Q table stored in a DoubleBuffer, e.g., the memory-mapped Q values of a Checkpoint.
+ * The layout is the same as in QValues: the Q value of (state, action) is at index stateId*NUM_ACTIONS + action.id.
+ *
+ * If the buffer is read-only, the table is copy-on-write: the first write to a block of BLOCK_SIZE Q values
+ * copies the block to the heap, and from then on the block is read and written there.
+ * The buffer itself is never written, and only the blocks that are actually updated are copied.
+ */
+public class MappedQValues extends QValues {
+    private static final int BLOCK_SHIFT = 10;
+    public static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE-1;
+
+    private DoubleBuffer qValues;
+
+    // The blocks that were copied on write, null for the blocks still read from the buffer (null if the buffer is writable)
+    private double[][] blocks;
+
+    public MappedQValues(CoffeeEnvironment environment, DoubleBuffer qValues){
+        super(environment, null);
+        if(qValues.capacity()!=environment.getNumStates()*CoffeeWorldAction.NUM_ACTIONS)
+            throw new IllegalArgumentException("Expected "+environment.getNumStates()*CoffeeWorldAction.NUM_ACTIONS
+                    +" Q values, got "+qValues.capacity());
+        this.qValues = qValues;
+        if(qValues.isReadOnly())
+            this.blocks = new double[(qValues.capacity()+BLOCK_SIZE-1) >>> BLOCK_SHIFT][];
+    }
+
+    @Override
+    public double getQValue(int stateId, int actionId){
+        int index = stateId*CoffeeWorldAction.NUM_ACTIONS+actionId;
+        if(this.blocks!=null){
+            double[] block = this.blocks[index >>> BLOCK_SHIFT];
+            if(block!=null)
+                return block[index & BLOCK_MASK];
+        }
+        return this.qValues.get(index);
+    }
+
+    @Override
+    public void setQValue(int stateId, int actionId, double newValue){
+        int index = stateId*CoffeeWorldAction.NUM_ACTIONS+actionId;
+        if(this.blocks==null){
+            this.qValues.put(index, newValue);
+            return;
+        }
+        double[] block = this.blocks[index >>> BLOCK_SHIFT];
+        if(block==null)
+            block = this.copyBlock(index >>> BLOCK_SHIFT);
+        block[index & BLOCK_MASK] = newValue;
+    }
+
+    /**
+     * Copy a block of the buffer to the heap.
+     */
+    private double[] copyBlock(int blockIndex){
+        int from = blockIndex << BLOCK_SHIFT;
+        double[] block = new double[Math.min(BLOCK_SIZE, this.qValues.capacity()-from)];
+        DoubleBuffer source = this.qValues.duplicate();
+        source.position(from);
+        source.get(block);
+        this.blocks[blockIndex] = block;
+        return block;
+    }
+}
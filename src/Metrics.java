@@ -0,0 +1,115 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of a training or evaluation run, cheap enough to update on every step.
+ * All the updates are lock-free (LongAdder and Histogram), so several threads can share one Metrics.
+ * A Metrics is attached to the code it measures with setMetrics() on Runner, AbstractQLearningAgent
+ * and the value iteration agents, and read with snapshot(), e.g., periodically by a MetricsReporter.
+ */
+public class Metrics {
+    private LongAdder episodes;
+    private LongAdder steps;
+    private LongAdder spills; // Episodes that ended with spilling the coffee
+    private LongAdder qUpdates; // Calls to AbstractQLearningAgent.learn()
+    private LongAdder sweeps; // Value iteration sweeps
+    private volatile double lastResidual; // The largest V value change in the last value iteration sweep
+
+    private Histogram stepsPerEpisode;
+    private Histogram episodeNanos;
+    private Histogram sweepNanos;
+
+    public Metrics(){
+        this.episodes = new LongAdder();
+        this.steps = new LongAdder();
+        this.spills = new LongAdder();
+        this.qUpdates = new LongAdder();
+        this.sweeps = new LongAdder();
+        this.stepsPerEpisode = new Histogram();
+        this.episodeNanos = new Histogram();
+        this.sweepNanos = new Histogram();
+    }
+
+    /**
+     * Record an episode that took the given number of steps and nanoseconds.
+     */
+    public void recordEpisode(int steps, boolean spilled, long nanos){
+        this.episodes.increment();
+        this.steps.add(steps);
+        if(spilled)
+            this.spills.increment();
+        this.stepsPerEpisode.record(steps);
+        this.episodeNanos.record(nanos);
+    }
+
+    public void recordQUpdate(){
+        this.qUpdates.increment();
+    }
+
+    /**
+     * Record a value iteration sweep, with its largest V value change.
+     */
+    public void recordSweep(double residual, long nanos){
+        this.sweeps.increment();
+        this.lastResidual = residual;
+        this.sweepNanos.record(nanos);
+    }
+
+    public Snapshot snapshot(){
+        Snapshot snapshot = new Snapshot();
+        snapshot.timeNanos = System.nanoTime();
+        snapshot.episodes = this.episodes.sum();
+        snapshot.steps = this.steps.sum();
+        snapshot.spills = this.spills.sum();
+        snapshot.qUpdates = this.qUpdates.sum();
+        snapshot.sweeps = this.sweeps.sum();
+        snapshot.lastResidual = this.lastResidual;
+        snapshot.stepsPerEpisode = this.stepsPerEpisode.snapshot();
+        snapshot.episodeNanos = this.episodeNanos.snapshot();
+        snapshot.sweepNanos = this.sweepNanos.snapshot();
+        return snapshot;
+    }
+
+    /**
+     * The values of all the metrics at some point in time.
+     */
+    public static class Snapshot {
+        public long timeNanos; // System.nanoTime() when the snapshot was taken
+        public long episodes;
+        public long steps;
+        public long spills;
+        public long qUpdates;
+        public long sweeps;
+        public double lastResidual;
+        public Histogram.Snapshot stepsPerEpisode;
+        public Histogram.Snapshot episodeNanos;
+        public Histogram.Snapshot sweepNanos;
+
+        private Snapshot(){
+        }
+
+        /**
+         * The fraction of the episodes that ended with spilling the coffee.
+         */
+        public double spillRate(){
+            return this.episodes==0 ? 0.0 : (double) this.spills/this.episodes;
+        }
+
+        /**
+         * The steps per second since the given earlier snapshot.
+         */
+        public double stepsPerSecond(Snapshot previous){
+            return perSecond(this.steps-previous.steps, this.timeNanos-previous.timeNanos);
+        }
+
+        /**
+         * The Q updates per second since the given earlier snapshot.
+         */
+        public double qUpdatesPerSecond(Snapshot previous){
+            return perSecond(this.qUpdates-previous.qUpdates, this.timeNanos-previous.timeNanos);
+        }
+
+        private static double perSecond(long count, long nanos){
+            return nanos<=0 ? 0.0 : count*1e9/nanos;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically takes a snapshot of a Metrics and passes it to a MetricsSink, on a background daemon thread.
+ */
+public class MetricsReporter {
+    private Metrics metrics;
+    private MetricsSink sink;
+    private ScheduledExecutorService scheduler;
+    private Metrics.Snapshot previous;
+
+    public MetricsReporter(Metrics metrics, MetricsSink sink){
+        this.metrics = metrics;
+        this.sink = sink;
+    }
+
+    /**
+     * Start reporting every periodMillis milliseconds.
+     */
+    public synchronized void start(long periodMillis){
+        if(this.scheduler!=null)
+            return;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop reporting, after emitting a final snapshot.
+     */
+    public synchronized void stop(){
+        if(this.scheduler==null)
+            return;
+        this.scheduler.shutdown();
+        try {
+            this.scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.scheduler = null;
+        this.report();
+    }
+
+    /**
+     * Take a snapshot and emit it now.
+     */
+    public synchronized void report(){
+        Metrics.Snapshot snapshot = this.metrics.snapshot();
+        this.sink.emit(snapshot, this.previous);
+        this.previous = snapshot;
+    }
+}
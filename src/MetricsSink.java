@@ -0,0 +1,9 @@
+/**
+ * Receives the periodic snapshots of a MetricsReporter.
+ */
+public interface MetricsSink {
+    /**
+     * Called with every new snapshot, and the one before it (null the first time).
+     */
+    void emit(Metrics.Snapshot snapshot, Metrics.Snapshot previous);
+}
@@ -0,0 +1,108 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded single-producer, single-consumer queue of observed (state, action, new state, reward) transitions,
+ * used to hand the transitions of a learning thread to a planning thread (see DynaQAgent).
+ * The transitions are stored in primitive arrays indexed by slot, in a ring of a power of two slots,
+ * so handing over a transition allocates nothing and copies four values.
+ *
+ * The producer publishes a transition by advancing tail, and the consumer frees slots by advancing head;
+ * each index is written by one thread only. An empty queue parks the consumer until the producer offers
+ * a transition or the queue is closed. A full queue rejects the transition, and the producer backs off.
+ */
+public class ObservationQueue {
+    private int[] state;
+    private byte[] action;
+    private int[] nextState;
+    private double[] reward;
+    private int mask;
+
+    private volatile long head; // The next slot to take, written by the consumer
+    private volatile long tail; // The next slot to fill, written by the producer
+    private volatile Thread waitingConsumer; // The consumer, while it is parked (or about to park)
+    private volatile boolean closed;
+
+    public ObservationQueue(int capacity){
+        int slots = Integer.highestOneBit(Math.max(1,capacity-1))<<1;
+        this.state = new int[slots];
+        this.action = new byte[slots];
+        this.nextState = new int[slots];
+        this.reward = new double[slots];
+        this.mask = slots-1;
+    }
+
+    /**
+     * Add a transition, and wake the consumer if it is waiting. Called by the producer only.
+     * @return false if the queue is full.
+     */
+    public boolean offer(int stateId, int actionId, int newStateId, double reward){
+        long tail = this.tail;
+        if(tail-this.head>this.mask)
+            return false;
+        int slot = (int) tail & this.mask;
+        this.state[slot] = stateId;
+        this.action[slot] = (byte) actionId;
+        this.nextState[slot] = newStateId;
+        this.reward[slot] = reward;
+        this.tail = tail+1; // Publishes the slot to the consumer
+
+        Thread consumer = this.waitingConsumer;
+        if(consumer!=null)
+            LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /**
+     * Add a transition, parking the producer in short steps while the queue is full.
+     * Throws an IllegalStateException if the queue is closed while waiting.
+     */
+    public void put(int stateId, int actionId, int newStateId, double reward){
+        while(!this.offer(stateId, actionId, newStateId, reward)){
+            if(this.closed)
+                throw new IllegalStateException("Observation queue is closed");
+            LockSupport.parkNanos(this, 10000L);
+        }
+    }
+
+    /**
+     * Record all the queued transitions in the model. Called by the consumer only.
+     * @return the number of transitions taken.
+     */
+    public int drainTo(TabularModel model){
+        long head = this.head;
+        long tail = this.tail;
+        int slot;
+        for(long i=head;i<tail;i++){
+            slot = (int) i & this.mask;
+            model.observe(this.state[slot], this.action[slot], this.nextState[slot], this.reward[slot]);
+        }
+        this.head = tail; // Frees the slots for the producer
+        return (int) (tail-head);
+    }
+
+    /**
+     * Park the consumer until the queue is not empty or is closed. Called by the consumer only.
+     * It may also return spuriously, so the caller should check again.
+     */
+    public void awaitObservations(){
+        this.waitingConsumer = Thread.currentThread();
+        // Check again after announcing the wait, so that an offer between the check and park() is not missed
+        if(this.tail==this.head && !this.closed)
+            LockSupport.park(this);
+        this.waitingConsumer = null;
+    }
+
+    /**
+     * Close the queue, and wake the consumer if it is waiting.
+     */
+    public void close(){
+        this.closed = true;
+        Thread consumer = this.waitingConsumer;
+        if(consumer!=null)
+            LockSupport.unpark(consumer);
+    }
+
+    public boolean isClosed(){
+        return this.closed;
+    }
+}
@@ -0,0 +1,192 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A sparse Q table, stored off-heap, that only holds the states that were updated.
+ * It is an open-addressing hash table (linear probing) in direct ByteBuffers, keyed by a long state key
+ * (e.g., of a LazyCoffeeEnvironment). Every entry holds the key and the Q values of all the actions of the state.
+ * States that are not in the table have Q value zero for every action.
+ *
+ * The table is split into SEGMENTS segments, each in its own buffer: the high bits of a key's hash choose the segment,
+ * and the low bits the entry in it. Every segment doubles on its own when it is half full, so the memory tracks
+ * the number of visited states, not the grid area, a grow rehashes only one segment, and the table is not
+ * limited by the 2GB size of a single buffer.
+ *
+ * Direct buffers are not limited by -Xmx but by -XX:MaxDirectMemorySize, which defaults to the maximum heap size,
+ * so a table larger than the heap needs that flag (e.g., -XX:MaxDirectMemorySize=16g); otherwise allocating a
+ * segment throws an OutOfMemoryError ("Direct buffer memory"). The buffer of a segment that grew is freed only when
+ * the GC collects it, so while a segment grows both its old and new buffers are allocated, and the old ones keep
+ * counting against the limit until the next collection that finds them. getMemoryBytes() counts the live segments only.
+ */
+public class OffHeapQTable {
+    private static final long EMPTY = -1; // The key of an empty entry
+    private static final int ENTRY_BYTES = Long.BYTES + CoffeeWorldAction.NUM_ACTIONS*Double.BYTES;
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    private Segment[] segments;
+
+    public OffHeapQTable(int initialCapacity){
+        int segmentCapacity = Math.max(MIN_SEGMENT_CAPACITY,
+                Integer.highestOneBit(Math.max(1,initialCapacity/SEGMENTS-1))<<1);
+        this.segments = new Segment[SEGMENTS];
+        for(int s=0;s<SEGMENTS;s++)
+            this.segments[s] = new Segment(segmentCapacity);
+    }
+
+    /**
+     * A segment of the table: a hash table in one direct buffer.
+     */
+    private static class Segment {
+        ByteBuffer entries;
+        int capacity; // The number of entries, a power of two
+        int size; // The number of used entries
+
+        Segment(int capacity){
+            this.allocate(capacity);
+        }
+
+        private void allocate(int capacity){
+            if((long) capacity*ENTRY_BYTES>Integer.MAX_VALUE)
+                throw new IllegalStateException("Off-heap Q table segment cannot grow beyond "
+                        +this.capacity+" states");
+            this.capacity = capacity;
+            this.size = 0;
+            this.entries = ByteBuffer.allocateDirect(capacity*ENTRY_BYTES).order(ByteOrder.nativeOrder());
+            for(int i=0;i<capacity;i++)
+                this.entries.putLong(i*ENTRY_BYTES, EMPTY);
+        }
+
+        /**
+         * The offset of the entry of the given key, or of the empty entry where it should be inserted.
+         */
+        int find(long stateKey, long hash){
+            int mask = this.capacity-1;
+            int i = (int) hash & mask;
+            long key;
+            while(true){
+                key = this.entries.getLong(i*ENTRY_BYTES);
+                if(key==stateKey || key==EMPTY)
+                    return i*ENTRY_BYTES;
+                i = (i+1) & mask;
+            }
+        }
+
+        /**
+         * Rehash all the entries into a segment of twice the capacity.
+         */
+        void grow(){
+            ByteBuffer oldEntries = this.entries;
+            int oldCapacity = this.capacity;
+            this.allocate(oldCapacity*2);
+            for(int i=0;i<oldCapacity;i++){
+                long key = oldEntries.getLong(i*ENTRY_BYTES);
+                if(key==EMPTY)
+                    continue;
+                int offset = this.find(key, SplitMix64.mix(key));
+                this.entries.putLong(offset, key);
+                for(int a=0;a<CoffeeWorldAction.NUM_ACTIONS;a++)
+                    this.entries.putDouble(offset+Long.BYTES+a*Double.BYTES,
+                            oldEntries.getDouble(i*ENTRY_BYTES+Long.BYTES+a*Double.BYTES));
+                this.size++;
+            }
+        }
+    }
+
+    private Segment segmentOf(long hash){
+        return this.segments[(int) (hash >>> (Long.SIZE-SEGMENT_BITS))];
+    }
+
+    public double getQValue(long stateKey, int actionId){
+        long hash = SplitMix64.mix(stateKey);
+        Segment segment = this.segmentOf(hash);
+        int offset = segment.find(stateKey, hash);
+        if(segment.entries.getLong(offset)==EMPTY)
+            return 0.0;
+        return segment.entries.getDouble(offset+Long.BYTES+actionId*Double.BYTES);
+    }
+
+    public void setQValue(long stateKey, int actionId, double newValue){
+        long hash = SplitMix64.mix(stateKey);
+        Segment segment = this.segmentOf(hash);
+        int offset = segment.find(stateKey, hash);
+        if(segment.entries.getLong(offset)==EMPTY){
+            if(2*(segment.size+1)>segment.capacity){
+                segment.grow();
+                offset = segment.find(stateKey, hash);
+            }
+            segment.entries.putLong(offset, stateKey);
+            for(int a=0;a<CoffeeWorldAction.NUM_ACTIONS;a++)
+                segment.entries.putDouble(offset+Long.BYTES+a*Double.BYTES, 0.0);
+            segment.size++;
+        }
+        segment.entries.putDouble(offset+Long.BYTES+actionId*Double.BYTES, newValue);
+    }
+
+    /**
+     * The highest Q value of the actions in the given mask, or zero if the mask is empty.
+     */
+    public double maxQ(long stateKey, int legalActionMask){
+        if(legalActionMask==0)
+            return 0.0;
+        long hash = SplitMix64.mix(stateKey);
+        Segment segment = this.segmentOf(hash);
+        int offset = segment.find(stateKey, hash);
+        if(segment.entries.getLong(offset)==EMPTY)
+            return 0.0;
+        double maxQ = Double.NEGATIVE_INFINITY;
+        double q;
+        for(int a=0;a<CoffeeWorldAction.NUM_ACTIONS;a++)
+            if(((legalActionMask>>a)&1)!=0){
+                q = segment.entries.getDouble(offset+Long.BYTES+a*Double.BYTES);
+                if(maxQ<q)
+                    maxQ = q;
+            }
+        return maxQ;
+    }
+
+    /**
+     * The id of the action in the given mask with the highest Q value, or -1 if the mask is empty.
+     * Ties are broken in favor of the action with the lower id.
+     */
+    public int argmaxQ(long stateKey, int legalActionMask){
+        long hash = SplitMix64.mix(stateKey);
+        Segment segment = this.segmentOf(hash);
+        int offset = segment.find(stateKey, hash);
+        boolean present = segment.entries.getLong(offset)!=EMPTY;
+        double maxQ = Double.NEGATIVE_INFINITY;
+        double q;
+        int bestAction = -1;
+        for(int a=0;a<CoffeeWorldAction.NUM_ACTIONS;a++)
+            if(((legalActionMask>>a)&1)!=0){
+                q = present ? segment.entries.getDouble(offset+Long.BYTES+a*Double.BYTES) : 0.0;
+                if(maxQ<q){
+                    maxQ = q;
+                    bestAction = a;
+                }
+            }
+        return bestAction;
+    }
+
+    /**
+     * The number of states in the table.
+     */
+    public long size(){
+        long size = 0;
+        for(Segment segment : this.segments)
+            size += segment.size;
+        return size;
+    }
+
+    /**
+     * The off-heap memory of the table's live segments, in bytes. Buffers of grown segments that were not collected yet
+     * are not counted.
+     */
+    public long getMemoryBytes(){
+        long bytes = 0;
+        for(Segment segment : this.segments)
+            bytes += (long) segment.capacity*ENTRY_BYTES;
+        return bytes;
+    }
+}
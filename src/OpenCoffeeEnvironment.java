@@ -1,5 +1,6 @@
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Another Coffee World environment. This environment is equivalent ot the CoffeeEnvironment,
@@ -7,10 +8,24 @@ import java.util.List;
  */
 public class OpenCoffeeEnvironment extends CoffeeEnvironment {
     public double[][] spillProbabilities;
+
+    // The transition function compiled into flat arrays. Created on first use.
+    private volatile TransitionModel transitionModel;
+
     public OpenCoffeeEnvironment(int rows, int cols, double[][] spillProbability) {
         super(rows, cols, spillProbability);
-        this.spillProbabilities = spillProbability;
+        this.spillProbabilities = this.getSpillProbabilities(); // The environment's private copy
+
+    }
+
+    public OpenCoffeeEnvironment(int rows, int cols, double[][] spillProbability, Random randomGenerator) {
+        super(rows, cols, spillProbability, randomGenerator);
+        this.spillProbabilities = this.getSpillProbabilities(); // The environment's private copy
+    }
 
+    @Override
+    public OpenCoffeeEnvironment copy(Random randomGenerator){
+        return new OpenCoffeeEnvironment(this.rows, this.cols, this.spillProbabilities, randomGenerator);
     }
 
     /**
@@ -31,24 +46,102 @@ public class OpenCoffeeEnvironment extends CoffeeEnvironment {
      * and the probability of reaching that state.
      */
     public List<Transition> getLegalTransitions(CoffeeWorldState state, CoffeeWorldAction action){
-        List<Transition> transitions;
-        if(CoffeeWorldAction.DRINK_COFFEE.equals(action)){
-            transitions = new ArrayList<Transition>(1);
-            transitions.add(new Transition(this.goalState,1.0));
+        assert(this.isLegal(state,action));
+        TransitionModel model = this.getTransitionModel();
+        int stateId = this.stateId(state);
+        int end = model.end(stateId,action.id);
+        List<Transition> transitions = new ArrayList<Transition>(2);
+        for(int t=model.begin(stateId,action.id);t<end;t++)
+            transitions.add(new Transition(this.stateOf(model.nextState[t]),model.probability[t]));
+        return transitions;
+    }
+
+    /**
+     * The transition and reward functions, as flat arrays over state and action ids.
+     * The model is compiled on the first call, and shared by all later calls.
+     */
+    public TransitionModel getTransitionModel(){
+        if(this.transitionModel==null)
+            this.transitionModel = this.compileTransitionModel();
+        return this.transitionModel;
+    }
+
+    /**
+     * Set the spill probability of the cells (rows[i], cols[i]) to probabilities[i].
+     * The change applies both to the simulation and, if it was compiled already, to the transition model,
+     * of this environment only (every environment keeps its own copy of the probabilities).
+     * @return the ids of the states whose transitions changed (the updated cells).
+     */
+    public int[] updateSpillProbabilities(int[] rows, int[] cols, double[] probabilities){
+        int[] changedStates = new int[rows.length];
+        TransitionModel model = this.transitionModel;
+        for(int i=0;i<rows.length;i++){
+            this.spillProbabilities[rows[i]][cols[i]] = probabilities[i];
+            changedStates[i] = this.stateId(rows[i],cols[i]);
+            if(model==null)
+                continue;
+
+            // Every move from the cell has two transitions: to the next cell, and then to the goal state
+            for(CoffeeWorldAction action : CoffeeWorldAction.MOVE_ACTIONS){
+                int t = model.begin(changedStates[i],action.id);
+                if(t==model.end(changedStates[i],action.id))
+                    continue;
+                model.probability[t] = 1-probabilities[i];
+                model.probability[t+1] = probabilities[i];
+            }
         }
-        else{
-            // Else, this is regular move action.
-            transitions = new ArrayList<Transition>(2);
-            int newRow = state.robotAtRow + action.deltaRows;
-            int newCol = state.robotAtCol + action.deltaCols;
-            assert(this.isLegal(state,action));
-            transitions.add(new Transition(this.states[newRow][newCol],
-                    1-this.spillProbabilities[state.robotAtRow][state.robotAtCol]));
-            transitions.add(new Transition(this.goalState,
-                    this.spillProbabilities[state.robotAtRow][state.robotAtCol]));
+        this.spillProbabilitiesChanged();
+        return changedStates;
+    }
+
+    /**
+     * Compile the transition function into a TransitionModel.
+     * Drinking the coffee reaches the goal state with probability 1.
+     * A move reaches the next cell, or spills the coffee (reaching the goal state)
+     * with the spill probability of the current cell.
+     */
+    private TransitionModel compileTransitionModel(){
+        int numStates = this.getNumStates();
+        int numTransitions = 0;
+        for(int s=0;s<numStates;s++) {
+            int mask = this.legalActionMask(s);
+            numTransitions += ((mask >> CoffeeWorldAction.DRINK_COFFEE.id) & 1)
+                    + 2*Integer.bitCount(mask & ~(1 << CoffeeWorldAction.DRINK_COFFEE.id));
         }
 
-        return transitions;
+        TransitionModel model = new TransitionModel(numStates,numTransitions);
+        int t = 0;
+        for(int s=0;s<numStates;s++){
+            int mask = this.legalActionMask(s);
+            for(CoffeeWorldAction action : CoffeeWorldAction.ACTIONS){
+                model.offsets[s*CoffeeWorldAction.NUM_ACTIONS+action.id] = t;
+                if(((mask >> action.id) & 1)==0)
+                    continue;
+                double reward = this.getReward(s,action.id);
+                if(CoffeeWorldAction.DRINK_COFFEE.equals(action)){
+                    model.nextState[t] = this.getGoalStateId();
+                    model.probability[t] = 1.0;
+                    model.reward[t] = reward;
+                    t++;
+                }
+                else{
+                    // Else, this is regular move action.
+                    int row = s/this.cols;
+                    int col = s%this.cols;
+                    double spillProbability = this.spillProbabilities[row][col];
+                    model.nextState[t] = this.stateId(row+action.deltaRows,col+action.deltaCols);
+                    model.probability[t] = 1-spillProbability;
+                    model.reward[t] = reward;
+                    t++;
+                    model.nextState[t] = this.getGoalStateId();
+                    model.probability[t] = spillProbability;
+                    model.reward[t] = reward;
+                    t++;
+                }
+            }
+        }
+        model.offsets[numStates*CoffeeWorldAction.NUM_ACTIONS] = t;
+        return model;
     }
 
     public class Transition{
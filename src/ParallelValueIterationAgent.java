@@ -0,0 +1,117 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * An MDP solving agent that runs synchronous (Jacobi) value iteration on several threads.
+ * The V values are kept in two arrays indexed by state id: every sweep reads the values of the
+ * previous sweep from one array and writes the new values to the other, so the states can be
+ * split into blocks that are updated in parallel. The largest change of a V value in a sweep
+ * is computed by a parallel reduction over the blocks.
+ * The convergence criterion is the same as in ValueIterationAgent: stop when no V value changed by more than 0.001.
+ */
+public class ParallelValueIterationAgent extends AbstractValueFunctionAgent {
+    // The number of states below which a sweep task is not split further
+    private static final int BLOCK_SIZE = 4096;
+
+    private int parallelism;
+    private Metrics metrics;
+
+    public ParallelValueIterationAgent(OpenCoffeeEnvironment environment, double discountFactor, int parallelism){
+        super(environment, discountFactor);
+        this.parallelism = parallelism;
+    }
+
+    public ParallelValueIterationAgent(OpenCoffeeEnvironment environment, double discountFactor){
+        this(environment, discountFactor, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Run the value iteration algorithm until it converges to an error smaller than 0.001.
+     */
+    @Override
+    public void plan() {
+        TransitionModel model = this.getTransitionModel();
+
+        // Initialize V values to zero
+        double[] oldV = new double[model.numStates];
+        double[] newV = new double[model.numStates];
+        double[] swap;
+        double maxVDiff;
+        int sweep = 0;
+        long sweepStartTime;
+        Object event;
+
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            do {
+                event = SweepEvents.begin();
+                sweepStartTime = System.nanoTime();
+                maxVDiff = pool.invoke(new SweepTask(model, oldV, newV, 0, model.numStates));
+                if(this.metrics!=null)
+                    this.metrics.recordSweep(maxVDiff, System.nanoTime()-sweepStartTime);
+                SweepEvents.commit(event, "ParallelValueIterationAgent", ++sweep, maxVDiff);
+                swap = oldV;
+                oldV = newV;
+                newV = swap;
+            } while (maxVDiff > 0.001);
+        } finally {
+            pool.shutdown();
+        }
+        this.vValues = oldV;
+    }
+
+    /**
+     * Record every sweep of plan() from now on in the given metrics (null to stop recording).
+     */
+    public void setMetrics(Metrics metrics){
+        this.metrics = metrics;
+    }
+
+    /**
+     * Perform the Bellman update on a block of states, reading the V values from oldV and writing them to newV.
+     * Returns the largest change of a V value in the block.
+     */
+    private class SweepTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        private TransitionModel model;
+        private double[] oldV;
+        private double[] newV;
+        private int from;
+        private int to;
+
+        SweepTask(TransitionModel model, double[] oldV, double[] newV, int from, int to){
+            this.model = model;
+            this.oldV = oldV;
+            this.newV = newV;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (this.to - this.from > BLOCK_SIZE) {
+                int middle = (this.from + this.to) >>> 1;
+                SweepTask left = new SweepTask(this.model, this.oldV, this.newV, this.from, middle);
+                SweepTask right = new SweepTask(this.model, this.oldV, this.newV, middle, this.to);
+                left.fork();
+                double rightDiff = right.compute();
+                return Math.max(left.join(), rightDiff);
+            }
+
+            double maxVDiff = 0;
+            double vDiff;
+            for (int s = this.from; s < this.to; s++) {
+                if (environment.isTerminal(s)) {
+                    this.newV[s] = 0;
+                    continue;
+                }
+                this.newV[s] = this.model.maxQValue(s, this.oldV, discountFactor);
+                vDiff = Math.abs(this.newV[s] - this.oldV[s]);
+                if (vDiff > maxVDiff)
+                    maxVDiff = vDiff;
+            }
+            return maxVDiff;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Computes the exact expected discounted rewards of a deterministic policy in a CoffeeEnvironment, with no simulation.
+ * The dynamics are those of step(), which Runner simulates: a move reaches its target cell with probability
+ * 1-p, where p is the spill probability of the target cell, and otherwise spills the coffee (the goal state,
+ * with no reward); drinking the coffee gives its reward and ends the episode.
+ * Note that the TransitionModel of an OpenCoffeeEnvironment, which the planners optimize, charges the spill
+ * probability of the cell a move starts from instead, so its values are not the ones computed here.
+ *
+ * In Coffee World every action has at most one outcome that is not the (terminal) goal state, so under a fixed
+ * policy each state has at most one non-terminal successor, and its value is
+ *      V[s] = R[s] + discountFactor*q[s]*V[next[s]]
+ * where R[s] is the reward of the policy's action and q[s] the probability of reaching next[s].
+ * The values are solved by following the successor chain from a state: a chain that ends in the goal state is
+ * solved backwards, and a chain that runs into a cycle (the policy walks in circles until it spills the coffee)
+ * is solved in closed form around the cycle first. Every state is solved once, so evaluating all the states
+ * takes time linear in their number.
+ */
+public class PolicyEvaluator {
+    // The solving status of a state
+    private static final byte UNVISITED = 0;
+    private static final byte ON_CHAIN = 1;
+    private static final byte SOLVED = 2;
+
+    private CoffeeEnvironment environment;
+    private double discountFactor;
+
+    public PolicyEvaluator(CoffeeEnvironment environment, double discountFactor){
+        this.environment = environment;
+        this.discountFactor = discountFactor;
+    }
+
+    /**
+     * The expected discounted rewards of the agent's policy from the initial state.
+     * The agent's chooseAction(int) must be deterministic, and is called once for every state reachable under it.
+     */
+    public double evaluate(Agent agent){
+        int initialState = this.environment.getInitialStateId();
+        return new Solver(agent).solve(initialState)[initialState];
+    }
+
+    /**
+     * The expected discounted rewards of the agent's policy from every state, indexed by state id.
+     */
+    public double[] evaluateAllStates(Agent agent){
+        Solver solver = new Solver(agent);
+        double[] values = null;
+        for(int s=0;s<this.environment.getNumStates();s++)
+            values = solver.solve(s);
+        return values;
+    }
+
+    /**
+     * The solving state of one evaluation: the values and statuses of the states, and the chain being followed.
+     */
+    private class Solver {
+        private Agent agent;
+        private double[][] spillProbabilities;
+
+        private double[] values;
+        private byte[] status;
+        private double[] expectedReward; // R[s]
+        private int[] next; // next[s], the non-terminal successor of s
+        private double[] continuation; // discountFactor*q[s]
+
+        private int[] chain; // The states on the chain being followed, in order
+        private int[] positionOnChain;
+
+        Solver(Agent agent){
+            this.agent = agent;
+            this.spillProbabilities = environment.getSpillProbabilities();
+            int numStates = environment.getNumStates();
+            this.values = new double[numStates];
+            this.status = new byte[numStates];
+            this.expectedReward = new double[numStates];
+            this.next = new int[numStates];
+            this.continuation = new double[numStates];
+            this.chain = new int[numStates];
+            this.positionOnChain = new int[numStates];
+        }
+
+        /**
+         * Solve the value of the given state, and of all the states on its chain.
+         * @return the values array.
+         */
+        double[] solve(int state){
+            int size = 0;
+            int s = state;
+            while(this.status[s]==UNVISITED){
+                if(environment.isTerminal(s)){
+                    this.values[s] = 0.0;
+                    this.status[s] = SOLVED;
+                    break;
+                }
+                this.expand(s);
+                this.status[s] = ON_CHAIN;
+                this.positionOnChain[s] = size;
+                this.chain[size++] = s;
+                if(this.next[s]<0)
+                    break;
+                s = this.next[s];
+            }
+
+            // The chain runs into a cycle: solve the cycle's first state in closed form, then the rest of the cycle
+            if(this.status[s]==ON_CHAIN && this.next[this.chain[size-1]]==s){
+                int start = this.positionOnChain[s];
+                double sum = 0.0;
+                double discount = 1.0;
+                for(int i=start;i<size;i++){
+                    sum += discount*this.expectedReward[this.chain[i]];
+                    discount *= this.continuation[this.chain[i]];
+                }
+                // A cycle that is never left (discount 1) gives no reward in Coffee World, so its value is zero
+                this.values[s] = discount<1.0 ? sum/(1.0-discount) : 0.0;
+                this.status[s] = SOLVED;
+                for(int i=size-1;i>start;i--)
+                    this.solveFromNext(this.chain[i]);
+                size = start;
+            }
+
+            // Solve the rest of the chain backwards
+            for(int i=size-1;i>=0;i--)
+                this.solveFromNext(this.chain[i]);
+            return this.values;
+        }
+
+        /**
+         * Compute R[s], next[s] and q[s] for the policy's action in s, as step() would act.
+         */
+        private void expand(int s){
+            int action = this.agent.chooseAction(s);
+            this.expectedReward[s] = environment.getReward(s,action);
+            if(action==CoffeeWorldAction.DRINK_COFFEE.id){
+                this.next[s] = -1;
+                this.continuation[s] = 0.0;
+                return;
+            }
+            int newRow = s/environment.cols + CoffeeWorldAction.ACTIONS[action].deltaRows;
+            int newCol = s%environment.cols + CoffeeWorldAction.ACTIONS[action].deltaCols;
+            this.next[s] = environment.stateId(newRow,newCol);
+            this.continuation[s] = discountFactor*(1-this.spillProbabilities[newRow][newCol]);
+        }
+
+        /**
+         * Set V[s] from the value of its successor, which is already solved.
+         */
+        private void solveFromNext(int s){
+            this.values[s] = this.expectedReward[s]
+                    + (this.next[s]<0 ? 0.0 : this.continuation[s]*this.values[this.next[s]]);
+            this.status[s] = SOLVED;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * An MDP solving agent that runs policy iteration.
+ * It alternates between evaluating the current policy (computing its V values) and improving it
+ * (choosing in every state the action that is best according to these V values),
+ * until the policy no longer changes.
+ *
+ * Policy evaluation runs Gauss-Seidel sweeps over the states in decreasing id order, i.e.,
+ * backward from the coffee cell at (rows-1, cols-1). When the policy only moves down and right,
+ * every state is evaluated after the states it can reach, so a single sweep is exact.
+ * Otherwise, sweeps are repeated until no V value changes by more than 0.001.
+ * In modified policy iteration, every evaluation is limited to a given number of sweeps.
+ *
+ * After plan(), the chosen action of every state is stored, so chooseAction() is a single array lookup.
+ */
+public class PolicyIterationAgent extends AbstractValueFunctionAgent {
+    private static final double TOLERANCE = 0.001;
+
+    protected int[] policy; // The action id chosen in every state, or -1 in terminal states
+
+    // The maximal number of sweeps per policy evaluation, or 0 for evaluating until convergence
+    private int evaluationSweeps;
+    private int improvements; // The number of policy improvement steps done by the last plan()
+
+    public PolicyIterationAgent(OpenCoffeeEnvironment environment, double discountFactor){
+        this(environment, discountFactor, 0);
+    }
+
+    /**
+     * Create an agent that runs modified policy iteration, with at most evaluationSweeps sweeps per evaluation.
+     */
+    public PolicyIterationAgent(OpenCoffeeEnvironment environment, double discountFactor, int evaluationSweeps){
+        super(environment, discountFactor);
+        this.evaluationSweeps = evaluationSweeps;
+    }
+
+    @Override
+    public int chooseAction(int stateId) {
+        return this.policy[stateId];
+    }
+
+    /**
+     * Run policy iteration, starting from the greedy policy of V values of zero.
+     */
+    @Override
+    public void plan() {
+        TransitionModel model = this.getTransitionModel();
+        this.vValues = new double[model.numStates];
+        this.policy = new int[model.numStates];
+        for(int s=0;s<model.numStates;s++)
+            this.policy[s] = model.bestAction(s,this.vValues,this.discountFactor);
+
+        this.improvements = 0;
+        boolean policyStable;
+        double maxVDiff;
+        do{
+            maxVDiff = this.evaluatePolicy(model);
+            policyStable = this.improvePolicy(model);
+            this.improvements++;
+        }while(policyStable==false || maxVDiff>TOLERANCE);
+    }
+
+    /**
+     * Update the V values towards the values of the current policy.
+     * @return the largest change of a V value in the last sweep.
+     */
+    private double evaluatePolicy(TransitionModel model){
+        double maxVDiff;
+        double newV;
+        double vDiff;
+        int sweeps = 0;
+        do{
+            maxVDiff = 0;
+            for(int s=model.numStates-1;s>=0;s--){
+                if(this.policy[s]<0)
+                    continue;
+                newV = model.qValue(s,this.policy[s],this.vValues,this.discountFactor);
+                vDiff = Math.abs(newV-this.vValues[s]);
+                if(vDiff>maxVDiff)
+                    maxVDiff = vDiff;
+                this.vValues[s] = newV;
+            }
+            sweeps++;
+        }while(maxVDiff>TOLERANCE && (this.evaluationSweeps==0 || sweeps<this.evaluationSweeps));
+        return maxVDiff;
+    }
+
+    /**
+     * Make the policy greedy with respect to the current V values.
+     * An action is replaced only by a strictly better one, so ties do not make the policy oscillate.
+     * @return true if the policy did not change.
+     */
+    private boolean improvePolicy(TransitionModel model){
+        boolean policyStable = true;
+        int bestAction;
+        for(int s=0;s<model.numStates;s++){
+            if(this.policy[s]<0)
+                continue;
+            bestAction = model.bestAction(s,this.vValues,this.discountFactor);
+            if(bestAction!=this.policy[s]
+                    && model.qValue(s,bestAction,this.vValues,this.discountFactor)
+                        > model.qValue(s,this.policy[s],this.vValues,this.discountFactor)){
+                this.policy[s] = bestAction;
+                policyStable = false;
+            }
+        }
+        return policyStable;
+    }
+
+    /**
+     * The number of policy improvement steps done by the last call to plan().
+     */
+    public int getImprovements(){
+        return this.improvements;
+    }
+}
@@ -0,0 +1,25 @@
+import java.io.PrintStream;
+
+/**
+ * A MetricsSink that prints every snapshot as a line of text.
+ */
+public class PrintStreamMetricsSink implements MetricsSink {
+    private PrintStream out;
+
+    public PrintStreamMetricsSink(PrintStream out){
+        this.out = out;
+    }
+
+    @Override
+    public void emit(Metrics.Snapshot snapshot, Metrics.Snapshot previous) {
+        double stepsPerSecond = previous==null ? 0.0 : snapshot.stepsPerSecond(previous);
+        double qUpdatesPerSecond = previous==null ? 0.0 : snapshot.qUpdatesPerSecond(previous);
+        this.out.format("episodes=%d steps/s=%.0f q-updates/s=%.0f spill rate=%.3f "
+                        + "steps/episode (mean=%.1f p99=%d) episode us (mean=%.1f p99=%.1f) "
+                        + "sweeps=%d last residual=%.5f%n",
+                snapshot.episodes, stepsPerSecond, qUpdatesPerSecond, snapshot.spillRate(),
+                snapshot.stepsPerEpisode.mean(), snapshot.stepsPerEpisode.percentile(99),
+                snapshot.episodeNanos.mean()/1000, snapshot.episodeNanos.percentile(99)/1000.0,
+                snapshot.sweeps, snapshot.lastResidual);
+    }
+}
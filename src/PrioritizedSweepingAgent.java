@@ -0,0 +1,90 @@
+/**
+ * An MDP solving agent that runs prioritized sweeping, an asynchronous form of value iteration.
+ * Instead of backing up every state in every sweep, it keeps a priority queue of the states whose
+ * Bellman residual (the change a backup would make to their V value) is above the tolerance,
+ * and always backs up the state with the largest residual. After a backup, only the predecessors
+ * of the updated state may have a new residual, so only they are re-examined.
+ * Planning ends when no state has a residual above 0.001.
+ * When spill probabilities change, replan() updates the V values incrementally.
+ */
+public class PrioritizedSweepingAgent extends AbstractValueFunctionAgent {
+    private static final double TOLERANCE = 0.001;
+
+    private IndexedPriorityQueue queue;
+    private long backups; // The number of Bellman backups done so far
+
+    public PrioritizedSweepingAgent(OpenCoffeeEnvironment environment, double discountFactor){
+        super(environment, discountFactor);
+    }
+
+    /**
+     * Run prioritized sweeping from V values of zero, until no state has a residual larger than 0.001.
+     */
+    @Override
+    public void plan() {
+        TransitionModel model = this.getTransitionModel();
+        model.computePredecessors();
+        this.vValues = new double[model.numStates];
+        this.queue = new IndexedPriorityQueue(model.numStates);
+        this.backups = 0;
+
+        for(int s=0;s<model.numStates;s++)
+            this.updatePriority(model,s);
+        this.sweep(model);
+    }
+
+    /**
+     * Update the V values after the transitions of the given states changed,
+     * e.g., after OpenCoffeeEnvironment.updateSpillProbabilities().
+     * Planning is warm-started from the current V values: only the changed states are queued,
+     * and changes are propagated to their predecessors until no state has a residual larger than 0.001.
+     * The work done is thus proportional to the region affected by the change, not to the size of the grid.
+     */
+    public void replan(int[] changedStates) {
+        if(this.vValues==null){
+            this.plan();
+            return;
+        }
+        TransitionModel model = this.getTransitionModel();
+        this.backups = 0;
+        for(int state : changedStates)
+            this.updatePriority(model,state);
+        this.sweep(model);
+    }
+
+    /**
+     * Back up states in order of their residual until the queue is empty.
+     */
+    protected void sweep(TransitionModel model){
+        int state;
+        int end;
+        while(this.queue.isEmpty()==false){
+            state = this.queue.poll();
+            this.vValues[state] = model.maxQValue(state,this.vValues,this.discountFactor);
+            this.backups++;
+
+            // Only the predecessors of the updated state can have a new residual
+            end = model.predecessorOffsets[state+1];
+            for(int p=model.predecessorOffsets[state];p<end;p++)
+                this.updatePriority(model,model.predecessors[p]);
+        }
+    }
+
+    /**
+     * Compute the residual of the given state, and queue it if the residual is above the tolerance.
+     */
+    protected void updatePriority(TransitionModel model, int state){
+        if(this.environment.isTerminal(state))
+            return;
+        double residual = Math.abs(model.maxQValue(state,this.vValues,this.discountFactor)-this.vValues[state]);
+        if(residual>TOLERANCE)
+            this.queue.offer(state,residual);
+    }
+
+    /**
+     * The number of Bellman backups done since the last call to plan() or replan().
+     */
+    public long getBackups(){
+        return this.backups;
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * An epsilon-greedy agent that learns with Watkins's Q(lambda).
+ * Every update propagates the temporal-difference error not only to the last (state, action) pair,
+ * but to all the recently visited pairs, in proportion to their eligibility traces,
+ * so the reward for drinking the coffee flows back along the whole path in a single episode.
+ * The traces decay by discountFactor*lambda per step, are dropped below a threshold,
+ * and are all cut when the agent learns from an exploratory (non-greedy) action, or from the first step of an episode.
+ * The traces are kept in an EligibilityTraces set, so a step costs time proportional to the number of live traces.
+ * When the agent acts on a batch environment, every lane runs its own episode, so it gets its own set of traces
+ * (allocated on the lane's first step); learn() outside a batch uses the traces of lane 0.
+ *
+ * The step size of every update is alpha(), which follows the schedule of AbstractQLearningAgent.
+ * Experience replay is not offered, since replayed transitions have no traces.
+ */
+public class QLambdaAgent extends AbstractQLearningAgent {
+    private double epsilon;
+    private double lambda;
+    private double traceThreshold;
+    private Random randomGenerator;
+
+    // The traces of the episode running in every lane, and the new state of the lane's last transition
+    // (-1 at the start of an episode)
+    private EligibilityTraces[] traces;
+    private int[] lastNewStateIds;
+
+    public QLambdaAgent(CoffeeEnvironment environment, double discountFactor, double epsilon,
+                        double lambda, double traceThreshold, Random randomGenerator){
+        this(environment, discountFactor, epsilon, lambda, traceThreshold, randomGenerator, new QValues(environment));
+    }
+
+    /**
+     * Create an agent that learns into the given Q table.
+     */
+    public QLambdaAgent(CoffeeEnvironment environment, double discountFactor, double epsilon,
+                        double lambda, double traceThreshold, Random randomGenerator, QValues qValues){
+        super(environment, discountFactor, qValues);
+        this.epsilon = epsilon;
+        this.lambda = lambda;
+        this.traceThreshold = traceThreshold;
+        this.randomGenerator = randomGenerator;
+        this.traces = new EligibilityTraces[]{new EligibilityTraces(environment.getNumStates())};
+        this.lastNewStateIds = new int[]{-1};
+    }
+
+    /**
+     * Choose a random legal action with probability epsilon, and otherwise the one with the highest Q value.
+     */
+    @Override
+    public CoffeeWorldAction chooseAction(CoffeeWorldState state) {
+        return CoffeeWorldAction.ACTIONS[this.chooseAction(this.environment.stateId(state))];
+    }
+
+    @Override
+    public int chooseAction(int stateId) {
+        if(this.randomGenerator.nextDouble()<this.epsilon){
+            List<CoffeeWorldAction> legalActions = this.environment.getLegalActions(stateId);
+            return legalActions.get(this.randomGenerator.nextInt(legalActions.size())).id;
+        }
+        return this.getQValues().argmaxQ(stateId);
+    }
+
+    @Override
+    public void learn(int stateId, int actionId, int newStateId, double reward) {
+        this.learnInLane(0, stateId, actionId, newStateId, reward);
+    }
+
+    @Override
+    protected void learnInLane(int lane, int stateId, int actionId, int newStateId, double reward) {
+        if(lane>=this.traces.length){
+            int lanes = this.traces.length;
+            this.traces = Arrays.copyOf(this.traces, lane+1);
+            this.lastNewStateIds = Arrays.copyOf(this.lastNewStateIds, lane+1);
+            Arrays.fill(this.lastNewStateIds, lanes, lane+1, -1);
+        }
+        if(this.traces[lane]==null)
+            this.traces[lane] = new EligibilityTraces(this.environment.getNumStates());
+        EligibilityTraces traces = this.traces[lane];
+
+        QValues qValues = this.getQValues();
+        double oldQ = qValues.getQValue(stateId,actionId);
+        double delta = reward + this.discountFactor*qValues.maxQ(newStateId) - oldQ;
+        double stepSize = this.alpha();
+
+        // The earlier pairs get no credit for what follows a new episode or an exploratory action
+        if(stateId!=this.lastNewStateIds[lane] || oldQ<qValues.maxQ(stateId))
+            traces.clear();
+
+        // Replacing traces: the pair just visited is fully eligible
+        traces.set(stateId,actionId,1.0);
+        int state;
+        int action;
+        for(int i=0;i<traces.size();i++){
+            state = traces.stateAt(i);
+            action = traces.actionAt(i);
+            qValues.setQValue(state,action,qValues.getQValue(state,action)+stepSize*delta*traces.valueAt(i));
+        }
+
+        // Traces do not carry over to the next episode
+        if(this.environment.isTerminal(newStateId)){
+            traces.clear();
+            this.lastNewStateIds[lane] = -1;
+        }
+        else{
+            traces.decay(this.discountFactor*this.lambda,this.traceThreshold);
+            this.lastNewStateIds[lane] = newStateId;
+        }
+
+        this.advanceLearningRate();
+    }
+
+    /**
+     * The number of live eligibility traces, in all the lanes.
+     */
+    public int getLiveTraces(){
+        int liveTraces = 0;
+        for(EligibilityTraces laneTraces : this.traces)
+            if(laneTraces!=null)
+                liveTraces += laneTraces.size();
+        return liveTraces;
+    }
+}
@@ -1,42 +1,117 @@
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TreeMap;
-
+/**
+ * A dense table of Q values, stored in a single primitive array.
+ * The Q value of (state, action) is stored at index stateId*NUM_ACTIONS + action.id,
+ * where stateId is the environment's id of the state.
+ */
 public class QValues {
 
-    private Map<CoffeeWorldState,Map<CoffeeWorldAction,Double>> qValues;
+    private double[] qValues;
+
+    private CoffeeEnvironment environment;
 
-    public QValues(){
-        this.qValues = new HashMap<CoffeeWorldState,Map<CoffeeWorldAction,Double>>();
+    public QValues(CoffeeEnvironment environment){
+        // Q value is zero for every action that was never performed
+        this(environment, new double[environment.getNumStates()*CoffeeWorldAction.NUM_ACTIONS]);
     }
 
     /**
-     * Get the current Q value of the given state and action pair
+     * Create a table over the given array of Q values.
+     * Subclasses that keep the Q values elsewhere pass null, and override getQValue(int,int) and setQValue(int,int,double).
      */
-    public double getQValue(CoffeeWorldState state, CoffeeWorldAction action){
-        Map<CoffeeWorldAction,Double> actionToQ = this.getActionToQValue(state);
-        if(actionToQ.containsKey(action))
-            return actionToQ.get(action);
-        else{
-            return 0.0; // First time this action is performed in this state, Q value is zero.
+    protected QValues(CoffeeEnvironment environment, double[] qValues){
+        this.environment = environment;
+        this.qValues = qValues;
+    }
+
+    /**
+     * A copy of the current Q values in a new dense table, unaffected by later updates of this table.
+     * It copies the whole table; see SnapshottableQValues for snapshots that share the unchanged values.
+     */
+    public QValues snapshot(){
+        double[] copy;
+        if(this.qValues!=null)
+            copy = this.qValues.clone();
+        else {
+            copy = new double[this.environment.getNumStates()*CoffeeWorldAction.NUM_ACTIONS];
+            for(int i=0;i<copy.length;i++)
+                copy[i] = this.getQValue(i/CoffeeWorldAction.NUM_ACTIONS, i%CoffeeWorldAction.NUM_ACTIONS);
         }
+        return new QValues(this.environment, copy);
     }
 
     /**
      * Get the current Q value of the given state and action pair
      */
+    public double getQValue(CoffeeWorldState state, CoffeeWorldAction action){
+        return this.getQValue(this.environment.stateId(state),action.id);
+    }
+
+    public double getQValue(int stateId, int actionId){
+        return this.qValues[stateId*CoffeeWorldAction.NUM_ACTIONS+actionId];
+    }
+
+    /**
+     * Set the current Q value of the given state and action pair
+     */
     public void setQValue(CoffeeWorldState state, CoffeeWorldAction action, double newValue){
-        Map<CoffeeWorldAction,Double> actionToQ = this.getActionToQValue(state);
-        actionToQ.put(action, newValue);
+        this.setQValue(this.environment.stateId(state),action.id,newValue);
+    }
+
+    public void setQValue(int stateId, int actionId, double newValue){
+        this.qValues[stateId*CoffeeWorldAction.NUM_ACTIONS+actionId] = newValue;
     }
 
     /**
-     * Get the q value stored for every action applicable in the given state.
+     * Get the highest Q value of the actions legal in the given state.
+     * Returns zero if no action is legal (i.e., in the goal state).
      */
-    private Map<CoffeeWorldAction, Double> getActionToQValue(CoffeeWorldState state){
-        if(this.qValues.containsKey(state)==false){
-            this.qValues.put(state,new HashMap<CoffeeWorldAction,Double>());
-        }
-        return this.qValues.get(state);
+    public double maxQ(CoffeeWorldState state){
+        return this.maxQ(this.environment.stateId(state));
+    }
+
+    public double maxQ(int stateId){
+        int mask = this.environment.legalActionMask(stateId);
+        if(mask==0)
+            return 0.0;
+
+        double maxQ = Double.NEGATIVE_INFINITY;
+        double q;
+        for(int a=0;a<CoffeeWorldAction.NUM_ACTIONS;a++)
+            if(((mask>>a)&1)!=0) {
+                q = this.getQValue(stateId,a);
+                if(maxQ<q)
+                    maxQ = q;
+            }
+        return maxQ;
+    }
+
+    /**
+     * Get the legal action with the highest Q value in the given state.
+     * Ties are broken in favor of the action that comes first in ACTIONS.
+     * Returns null if no action is legal (i.e., in the goal state).
+     */
+    public CoffeeWorldAction argmaxQ(CoffeeWorldState state){
+        int bestAction = this.argmaxQ(this.environment.stateId(state));
+        return bestAction<0 ? null : CoffeeWorldAction.ACTIONS[bestAction];
+    }
+
+    /**
+     * Same as argmaxQ(CoffeeWorldState), but returns an action id, or -1 if no action is legal.
+     */
+    public int argmaxQ(int stateId){
+        int mask = this.environment.legalActionMask(stateId);
+
+        double maxQ = Double.NEGATIVE_INFINITY;
+        double q;
+        int bestAction = -1;
+        for(int a=0;a<CoffeeWorldAction.NUM_ACTIONS;a++)
+            if(((mask>>a)&1)!=0) {
+                q = this.getQValue(stateId,a);
+                if(maxQ<q){
+                    maxQ = q;
+                    bestAction = a;
+                }
+            }
+        return bestAction;
     }
 }
@@ -1,8 +1,19 @@
 public abstract class ReinforcementLearningAgent extends Agent{
+    // Where every transition the agent acts and learns on is recorded, or null for no recording
+    private TrajectoryWriter trajectoryWriter;
+
     public ReinforcementLearningAgent(CoffeeEnvironment environment, double discountFactor){
         super(environment, discountFactor);
     }
 
+    /**
+     * Record every transition from now on in the given trajectory log (null to stop recording).
+     * When acting on a batch environment, the transitions of every slot are written to the lane of the slot.
+     */
+    public void setTrajectoryWriter(TrajectoryWriter trajectoryWriter){
+        this.trajectoryWriter = trajectoryWriter;
+    }
+
     /**
      * Execute an action, and learn from its outcome.
      * @return the outcome of the action -- the new state and the obtained reward.
@@ -11,10 +22,42 @@ public abstract class ReinforcementLearningAgent extends Agent{
         CoffeeWorldAction action = this.chooseAction(state);
         CoffeeEnvironment.ActionOutcome outcome = this.environment.apply(state,action);
         this.learn(state,action, outcome.newState,outcome.reward);
+        if(this.trajectoryWriter!=null)
+            this.trajectoryWriter.write(this.environment.stateId(state),action.id,
+                    this.environment.stateId(outcome.newState),outcome.reward,
+                    this.environment.isTerminal(outcome.newState));
 
         return outcome;
     }
 
+    @Override
+    public int act(int stateId, double[] reward){
+        int actionId = this.chooseAction(stateId);
+        int newStateId = this.environment.step(stateId,actionId,reward);
+        this.learn(stateId,actionId,newStateId,reward[0]);
+        if(this.trajectoryWriter!=null)
+            this.trajectoryWriter.write(stateId,actionId,newStateId,reward[0],this.environment.isTerminal(newStateId));
+
+        return newStateId;
+    }
+
+
+    /**
+     * Execute one step in every running episode of the given batch environment,
+     * and learn from the outcomes.
+     */
+    @Override
+    public void act(VectorizedCoffeeEnvironment batch, int[] stateIds, int[] actionIds,
+                    int[] newStateIds, double[] rewards){
+        super.act(batch,stateIds,actionIds,newStateIds,rewards);
+        for(int i=0;i<stateIds.length;i++)
+            if(actionIds[i]>=0){
+                this.learnInLane(i,stateIds[i],actionIds[i],newStateIds[i],rewards[i]);
+                if(this.trajectoryWriter!=null)
+                    this.trajectoryWriter.write(i,stateIds[i],actionIds[i],newStateIds[i],rewards[i],
+                            this.environment.isTerminal(newStateIds[i]));
+            }
+    }
 
     public abstract CoffeeWorldAction chooseAction(CoffeeWorldState state);
 
@@ -22,4 +65,23 @@ public abstract class ReinforcementLearningAgent extends Agent{
                       CoffeeWorldAction action,
                       CoffeeWorldState newState,
                       double reward);
+
+    /**
+     * Same as learn(CoffeeWorldState, CoffeeWorldAction, CoffeeWorldState, double), on state and action ids.
+     */
+    public void learn(int stateId, int actionId, int newStateId, double reward){
+        this.learn(this.environment.stateOf(stateId),
+                CoffeeWorldAction.ACTIONS[actionId],
+                this.environment.stateOf(newStateId),
+                reward);
+    }
+
+    /**
+     * Learn from a transition of the episode running in the given slot of a batch environment.
+     * The transitions of the slots are interleaved, so an agent that keeps per-episode state
+     * (e.g., eligibility traces) should keep it per lane; by default the lane is ignored.
+     */
+    protected void learnInLane(int lane, int stateId, int actionId, int newStateId, double reward){
+        this.learn(stateId,actionId,newStateId,reward);
+    }
 }
@@ -0,0 +1,129 @@
+import java.util.Random;
+
+/**
+ * A fixed-capacity ring buffer of observed (state, action, new state, reward) transitions, for experience replay.
+ * The transitions are stored in primitive arrays indexed by slot; when the buffer is full,
+ * every new transition overwrites the oldest one.
+ *
+ * Slots are sampled either uniformly, or (if prioritized) in proportion to a priority that the learner
+ * sets after replaying the slot, typically the size of the change it made to the Q value.
+ * Priorities are kept in a sum tree, so sampling and updating a priority take O(log capacity).
+ */
+public class ReplayBuffer {
+    private static final double MIN_PRIORITY = 1e-6; // So that every slot keeps some chance to be sampled
+
+    private int[] state;
+    private byte[] action;
+    private int[] nextState;
+    private float[] reward;
+
+    private int capacity;
+    private int size; // The number of slots in use
+    private int next; // The slot the next transition is written to
+
+    // For prioritized sampling: a binary sum tree whose leaves (tree[leaves+slot]) are the slot priorities,
+    // and every inner node is the sum of its two children. null for uniform sampling.
+    private double[] tree;
+    private int leaves;
+    private double maxPriority;
+
+    public ReplayBuffer(int capacity, boolean prioritized){
+        this.capacity = capacity;
+        this.state = new int[capacity];
+        this.action = new byte[capacity];
+        this.nextState = new int[capacity];
+        this.reward = new float[capacity];
+        this.size = 0;
+        this.next = 0;
+        if(prioritized){
+            this.leaves = Integer.highestOneBit(Math.max(1,capacity-1))<<1;
+            this.tree = new double[2*this.leaves];
+            this.maxPriority = 1.0;
+        }
+    }
+
+    /**
+     * Store a transition, overwriting the oldest one if the buffer is full.
+     * With prioritized sampling, a new transition gets the highest priority seen so far,
+     * so it is likely to be replayed at least once.
+     */
+    public void add(int stateId, int actionId, int newStateId, double reward){
+        int slot = this.next;
+        this.state[slot] = stateId;
+        this.action[slot] = (byte) actionId;
+        this.nextState[slot] = newStateId;
+        this.reward[slot] = (float) reward;
+        if(this.tree!=null)
+            this.setPriority(slot,this.maxPriority);
+
+        this.next = (slot+1)%this.capacity;
+        if(this.size<this.capacity)
+            this.size++;
+    }
+
+    /**
+     * Draw a slot, uniformly or by priority. The buffer must not be empty.
+     */
+    public int sample(Random random){
+        if(this.tree==null)
+            return random.nextInt(this.size);
+
+        // Descend the sum tree towards the leaf that covers a uniform point in [0, total priority)
+        double point = random.nextDouble()*this.tree[1];
+        int node = 1;
+        while(node<this.leaves){
+            node = 2*node;
+            if(point>=this.tree[node]){
+                point -= this.tree[node];
+                node++;
+            }
+        }
+        // Rounding may land on an unused leaf, whose priority is zero
+        return Math.min(node-this.leaves, this.size-1);
+    }
+
+    /**
+     * Set the priority of a slot after replaying it. Ignored when sampling is uniform.
+     */
+    public void updatePriority(int slot, double priority){
+        if(this.tree==null)
+            return;
+        priority = Math.max(priority,MIN_PRIORITY);
+        if(priority>this.maxPriority)
+            this.maxPriority = priority;
+        this.setPriority(slot,priority);
+    }
+
+    private void setPriority(int slot, double priority){
+        int node = this.leaves+slot;
+        double change = priority-this.tree[node];
+        while(node>=1){
+            this.tree[node] += change;
+            node = node/2;
+        }
+    }
+
+    public int getState(int slot){
+        return this.state[slot];
+    }
+
+    public int getAction(int slot){
+        return this.action[slot];
+    }
+
+    public int getNextState(int slot){
+        return this.nextState[slot];
+    }
+
+    public double getReward(int slot){
+        return this.reward[slot];
+    }
+
+    public int size(){
+        return this.size;
+    }
+
+    public boolean isPrioritized(){
+        return this.tree!=null;
+    }
+}
@@ -1,27 +1,67 @@
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * This class enables running the RL agent and measuring its performance.
  */
 public class Runner {
 
+    // Where the episodes are recorded, or null for no instrumentation
+    private Metrics metrics;
+
+    /**
+     * Record every episode run from now on in the given metrics (null to stop recording).
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * Runs a single episode. The agent chooses an action, learns from its outcome,
      * and continues doing so until reaching a terminal state.
      * @return The discounted rewards collected by the agent.
      */
     public double runEpisode(CoffeeEnvironment environment, Agent agent, double discountFactor) {
-        CoffeeWorldState currentState = environment.getInitialState();
-        CoffeeEnvironment.ActionOutcome outcome;
+        return this.runEpisode(environment, agent, discountFactor, Integer.MAX_VALUE, new double[1]);
+    }
+
+    /**
+     * Same as runEpisode(), but cut the episode after maxSteps steps, e.g., when training an agent whose
+     * policy might walk in circles on cells where the coffee never spills.
+     */
+    public double runEpisode(CoffeeEnvironment environment, Agent agent, double discountFactor, int maxSteps) {
+        return this.runEpisode(environment, agent, discountFactor, maxSteps, new double[1]);
+    }
+
+    /**
+     * Same as runEpisode(), with at most maxSteps steps, using the given buffer to receive the reward of every step.
+     */
+    private double runEpisode(CoffeeEnvironment environment, Agent agent, double discountFactor, int maxSteps,
+                              double[] reward) {
+        Metrics metrics = this.metrics;
+        long startTime = metrics == null ? 0 : System.nanoTime();
+        int currentState = environment.getInitialStateId();
         double accumulatedReward = 0;
         double discount = 1.0;
+        int steps = 0;
 
-        while (environment.isTerminal(currentState) == false) {
-            outcome = agent.act(currentState);
-            accumulatedReward = accumulatedReward + discount * outcome.reward;
+        while (environment.isTerminal(currentState) == false && steps < maxSteps) {
+            currentState = agent.act(currentState, reward);
+            accumulatedReward = accumulatedReward + discount * reward[0];
             discount = discount * discountFactor; // Future rewards get discounted
-            currentState = outcome.newState;
+            steps++;
         }
+
+        // Drinking the coffee is the only rewarded action, so an episode that ended without reward was a spill
+        if (metrics != null)
+            metrics.recordEpisode(steps, environment.isTerminal(currentState) && reward[0] == 0,
+                    System.nanoTime() - startTime);
         return accumulatedReward;
     }
 
@@ -29,12 +69,286 @@ public class Runner {
      * Run multiple episodes, return the average discounted collected rewards.
      */
     public double runEpisodes(CoffeeEnvironment environment, Agent agent, double discountFactor, int iterations) {
+        double[] reward = new double[1];
         double sumOfRewards = 0.0;
         for (int i = 0; i < iterations; i++)
-            sumOfRewards += this.runEpisode(environment,agent, discountFactor);
+            sumOfRewards += this.runEpisode(environment,agent, discountFactor, Integer.MAX_VALUE, reward);
         return sumOfRewards / iterations;
     }
 
+    /**
+     * Evaluate the greedy policy of the given Q table, without learning: run the given number of episodes with a
+     * GreedyAgent, and cut every episode after maxSteps steps, since a greedy policy learned so far might walk
+     * in circles on cells where the coffee never spills. The episodes are not recorded in the metrics.
+     * The environment should be a private copy, seeded so that the evaluation is reproducible.
+     * @return the statistics of the discounted collected rewards of the episodes.
+     */
+    public RunningStatistics evaluateGreedy(CoffeeEnvironment environment, QValues qValues, double discountFactor,
+                                            int episodes, int maxSteps) {
+        GreedyAgent greedyAgent = new GreedyAgent(environment, discountFactor, qValues);
+        RunningStatistics statistics = new RunningStatistics();
+        double[] reward = new double[1];
+        int state;
+        int steps;
+        double accumulatedReward;
+        double discount;
+        for (int episode = 0; episode < episodes; episode++) {
+            state = environment.getInitialStateId();
+            accumulatedReward = 0;
+            discount = 1.0;
+            for (steps = 0; steps < maxSteps && !environment.isTerminal(state); steps++) {
+                state = greedyAgent.act(state, reward);
+                accumulatedReward += discount * reward[0];
+                discount *= discountFactor;
+            }
+            statistics.add(accumulatedReward);
+        }
+        return statistics;
+    }
+
+    /**
+     * Run multiple episodes concurrently on a batch environment, return the average discounted collected rewards.
+     * The discount factor is the one the batch environment was created with.
+     */
+    public double runEpisodes(VectorizedCoffeeEnvironment environment, Agent agent, int iterations) {
+        int batchSize = environment.getBatchSize();
+        int[] stateIds = new int[batchSize];
+        int[] actionIds = new int[batchSize];
+        int[] newStateIds = new int[batchSize];
+        double[] rewards = new double[batchSize];
+
+        environment.reset(iterations);
+        while (environment.isFinished() == false)
+            agent.act(environment, stateIds, actionIds, newStateIds, rewards);
+        return environment.getSumOfReturns() / environment.getFinishedEpisodes();
+    }
+
+    /**
+     * Run episodes in batches of batchSize until the confidence interval of the average discounted collected
+     * rewards is at most targetWidth wide, or maxEpisodes episodes were run, or timeBudgetMillis passed.
+     * The interval is mean +- z standard errors (e.g., z=1.96 for 95% confidence),
+     * with the mean and variance kept by a RunningStatistics.
+     * The interval can only stop the run after minEpisodes episodes (e.g., 30): before that, the sample variance
+     * is unreliable, and is zero when the first episodes happen to have equal rewards, e.g., when none spilled.
+     */
+    public AdaptiveEvaluation runEpisodesUntilConfident(CoffeeEnvironment environment, Agent agent,
+                                                        double discountFactor, int batchSize, double targetWidth,
+                                                        double z, int minEpisodes, int maxEpisodes,
+                                                        long timeBudgetMillis) {
+        long deadline = System.nanoTime() + timeBudgetMillis * 1000000L;
+        double[] reward = new double[1];
+        RunningStatistics statistics = new RunningStatistics();
+        AdaptiveEvaluation evaluation = new AdaptiveEvaluation();
+        while (true) {
+            for (int i = 0; i < batchSize && statistics.getCount() < maxEpisodes; i++)
+                statistics.add(this.runEpisode(environment, agent, discountFactor, Integer.MAX_VALUE, reward));
+
+            evaluation.halfWidth = z * statistics.getStandardError();
+            if (statistics.getCount() >= minEpisodes && 2 * evaluation.halfWidth <= targetWidth) {
+                evaluation.converged = true;
+                break;
+            }
+            if (statistics.getCount() >= maxEpisodes || System.nanoTime() >= deadline)
+                break;
+        }
+        evaluation.averageUtility = statistics.getMean();
+        evaluation.variance = statistics.getVariance();
+        evaluation.episodes = statistics.getCount();
+        return evaluation;
+    }
+
+    /**
+     * The result of runEpisodesUntilConfident().
+     */
+    public static class AdaptiveEvaluation {
+        public double averageUtility; // The average discounted collected rewards
+        public double halfWidth; // The confidence interval is averageUtility +- halfWidth
+        public double variance; // The sample variance of the discounted collected rewards
+        public long episodes; // The number of episodes run
+        public boolean converged; // False if the episode or time budget ran out before the target width was reached
+
+        private AdaptiveEvaluation() {
+        }
+
+        public double getLower() {
+            return this.averageUtility - this.halfWidth;
+        }
+
+        public double getUpper() {
+            return this.averageUtility + this.halfWidth;
+        }
+    }
+
+    /**
+     * Evaluate several agents with common random numbers: in every episode, all the agents face the same spill
+     * outcomes, because each agent's environment is reseeded with the same per-episode seed before the agent runs.
+     * The differences between the agents are therefore much less noisy than with independent evaluations.
+     * The agents may share an environment.
+     */
+    public PairedEvaluation runPairedEpisodes(Agent[] agents, double discountFactor, int iterations, long seed) {
+        double[] reward = new double[1];
+        double[] utilities = new double[agents.length];
+        RunningStatistics[] utilityStatistics = new RunningStatistics[agents.length];
+        RunningStatistics[] differenceStatistics = new RunningStatistics[agents.length];
+        for (int i = 0; i < agents.length; i++) {
+            utilityStatistics[i] = new RunningStatistics();
+            differenceStatistics[i] = new RunningStatistics();
+        }
+
+        for (int episode = 0; episode < iterations; episode++) {
+            long episodeSeed = CoffeeEnvironment.episodeSeed(seed, episode);
+            for (int i = 0; i < agents.length; i++) {
+                CoffeeEnvironment environment = agents[i].getEnvironment();
+                environment.setSeed(episodeSeed);
+                utilities[i] = this.runEpisode(environment, agents[i], discountFactor, Integer.MAX_VALUE, reward);
+                utilityStatistics[i].add(utilities[i]);
+                differenceStatistics[i].add(utilities[i] - utilities[0]);
+            }
+        }
+
+        PairedEvaluation evaluation = new PairedEvaluation(agents.length);
+        for (int i = 0; i < agents.length; i++) {
+            evaluation.averageUtility[i] = utilityStatistics[i].getMean();
+            evaluation.meanDifference[i] = differenceStatistics[i].getMean();
+            evaluation.differenceVariance[i] = differenceStatistics[i].getVariance();
+        }
+        evaluation.episodes = iterations;
+        return evaluation;
+    }
+
+    /**
+     * The result of runPairedEpisodes(). Differences are of every agent relative to the first agent.
+     */
+    public static class PairedEvaluation {
+        public double[] averageUtility; // The average discounted collected rewards of every agent
+        public double[] meanDifference; // The average of (utility of agent i - utility of agent 0) over the episodes
+        public double[] differenceVariance; // The sample variance of these per-episode differences
+        public long episodes;
+
+        private PairedEvaluation(int numAgents) {
+            this.averageUtility = new double[numAgents];
+            this.meanDifference = new double[numAgents];
+            this.differenceVariance = new double[numAgents];
+        }
+
+        /**
+         * The standard error of meanDifference[agent].
+         */
+        public double getStandardError(int agent) {
+            return Math.sqrt(this.differenceVariance[agent] / this.episodes);
+        }
+    }
+
+    /**
+     * Run multiple episodes in parallel, split evenly between the given number of worker threads.
+     * Every worker has its own random generator, derived from the given seed.
+     * The agent only chooses actions -- it does not learn from the outcomes -- so its chooseAction()
+     * must be safe to call from several threads (e.g., an MDP agent after plan()).
+     */
+    public ParallelEvaluation runEpisodesInParallel(final CoffeeEnvironment environment, final Agent agent,
+                                                    final double discountFactor, int iterations,
+                                                    int parallelism, long seed) {
+        SplittableRandom seeds = new SplittableRandom(seed);
+        List<Callable<WorkerStats>> workers = new ArrayList<>(parallelism);
+        for (int w = 0; w < parallelism; w++) {
+            // Spread the remainder over the first workers
+            final int episodes = iterations / parallelism + (w < iterations % parallelism ? 1 : 0);
+            final Random random = new Random(seeds.split().nextLong());
+            workers.add(new Callable<WorkerStats>() {
+                @Override
+                public WorkerStats call() {
+                    return runWorker(environment, agent, discountFactor, episodes, random);
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ParallelEvaluation evaluation = new ParallelEvaluation(parallelism);
+            List<Future<WorkerStats>> results = pool.invokeAll(workers);
+            double sumOfRewards = 0.0;
+            for (int w = 0; w < parallelism; w++) {
+                evaluation.workers[w] = results.get(w).get();
+                sumOfRewards += evaluation.workers[w].sumOfRewards;
+            }
+            evaluation.averageUtility = sumOfRewards / iterations;
+            return evaluation;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Parallel evaluation failed", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Same as runEpisodesInParallel(), with a random seed.
+     */
+    public ParallelEvaluation runEpisodesInParallel(CoffeeEnvironment environment, Agent agent,
+                                                    double discountFactor, int iterations, int parallelism) {
+        return this.runEpisodesInParallel(environment, agent, discountFactor, iterations, parallelism,
+                new Random().nextLong());
+    }
+
+    /**
+     * Run the episodes of a single parallel evaluation worker.
+     */
+    private WorkerStats runWorker(CoffeeEnvironment environment, Agent agent, double discountFactor,
+                                  int episodes, Random random) {
+        long startTime = System.nanoTime();
+        WorkerStats stats = new WorkerStats();
+        double[] reward = new double[1];
+        int currentState;
+        int action;
+        double discount;
+        Metrics metrics = this.metrics;
+        long episodeStartTime;
+        int episodeSteps;
+        for (int i = 0; i < episodes; i++) {
+            episodeStartTime = metrics == null ? 0 : System.nanoTime();
+            episodeSteps = 0;
+            currentState = environment.getInitialStateId();
+            discount = 1.0;
+            while (environment.isTerminal(currentState) == false) {
+                action = agent.chooseAction(currentState);
+                currentState = environment.step(currentState, action, reward, random);
+                stats.sumOfRewards += discount * reward[0];
+                discount = discount * discountFactor;
+                episodeSteps++;
+            }
+            stats.steps += episodeSteps;
+            if (metrics != null)
+                metrics.recordEpisode(episodeSteps, reward[0] == 0, System.nanoTime() - episodeStartTime);
+        }
+        stats.episodes = episodes;
+        stats.elapsedNanos = System.nanoTime() - startTime;
+        return stats;
+    }
+
+    /**
+     * The result of runEpisodesInParallel().
+     */
+    public static class ParallelEvaluation {
+        public double averageUtility; // The average discounted collected rewards over all episodes
+        public WorkerStats[] workers;
+
+        private ParallelEvaluation(int parallelism) {
+            this.workers = new WorkerStats[parallelism];
+        }
+    }
+
+    /**
+     * What a single worker of a parallel evaluation did.
+     */
+    public static class WorkerStats {
+        public int episodes;
+        public long steps;
+        public double sumOfRewards;
+        public long elapsedNanos;
+
+        private WorkerStats() {
+        }
+    }
+
     /**
      * Create a random matrix that defines the probability to spill each coffee in each grid cell.
      */
@@ -110,18 +424,29 @@ public class Runner {
         MDPAgent VIAgent;
         VIAgent= new ValueIterationAgent(openEnvironment, discountFactor);
         VIAgent.plan();
-        utility = runner.runEpisodes(openEnvironment, VIAgent, discountFactor, iterations);
+        utility = runner.runEpisodesInParallel(openEnvironment, VIAgent, discountFactor, iterations,
+                Runtime.getRuntime().availableProcessors()).averageUtility;
         System.out.format("MDP: Average utility over %d iterations is %.2f%n", iterations,utility);
+        utility = new PolicyEvaluator(openEnvironment, discountFactor).evaluate(VIAgent);
+        System.out.format("MDP: Exact expected utility is %.2f%n", utility);
 
         // Reinforcement learning agent
         CoffeeEnvironment environment = new CoffeeEnvironment(rows,cols, spillProbabilities);
-        ReinforcementLearningAgent agent;
+        AbstractQLearningAgent agent;
         double epsilon = 0.1;
         agent = new EpsilonGreedyAgent(environment, discountFactor,epsilon);
         for(int i=100; i<=iterations;i=i*2) {
             utility = runner.runEpisodes(environment, agent, discountFactor, i);
             System.out.format("RL: Average utility over %d iterations is %.2f%n", i, utility);
         }
+
+        // Compare the agents on the same spill outcomes; the RL agent is compared by its greedy policy,
+        // over a snapshot of what it learned, so it neither explores nor keeps learning during the comparison
+        Agent learnedAgent = new GreedyAgent(environment, discountFactor, agent.getQValues().snapshot());
+        PairedEvaluation comparison = runner.runPairedEpisodes(new Agent[]{VIAgent, learnedAgent}, discountFactor,
+                iterations, 42);
+        System.out.format("RL - MDP: Average difference over %d paired iterations is %.2f +- %.2f%n", iterations,
+                comparison.meanDifference[1], 1.96 * comparison.getStandardError(1));
     }
 
 }
@@ -0,0 +1,38 @@
+/**
+ * The streaming mean and variance of a sequence of values (Welford's algorithm),
+ * numerically stable and O(1) in memory.
+ */
+public class RunningStatistics {
+    private long count;
+    private double mean;
+    private double sumOfSquaredDiffs; // The sum of squared differences from the current mean
+
+    public void add(double value){
+        this.count++;
+        double diff = value-this.mean;
+        this.mean += diff/this.count;
+        this.sumOfSquaredDiffs += diff*(value-this.mean);
+    }
+
+    public long getCount(){
+        return this.count;
+    }
+
+    public double getMean(){
+        return this.mean;
+    }
+
+    /**
+     * The sample variance (with Bessel's correction), or zero for fewer than two values.
+     */
+    public double getVariance(){
+        return this.count<2 ? 0.0 : this.sumOfSquaredDiffs/(this.count-1);
+    }
+
+    /**
+     * The standard error of the mean.
+     */
+    public double getStandardError(){
+        return this.count<2 ? Double.POSITIVE_INFINITY : Math.sqrt(this.getVariance()/this.count);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * A dense Q table whose snapshot() is cheap, for taking snapshots while an agent trains (see LearningCurveEvaluator).
+ * The layout is the same as in QValues, but the values are paged into blocks of BLOCK_SIZE values:
+ * a snapshot shares the blocks of the table, and starts a new epoch. The first write to a block in a new epoch
+ * copies the block, so the table and its snapshots never see each other's later writes, and only the blocks
+ * that are written after a snapshot are ever copied.
+ *
+ * The paging costs an extra indirection on every read and write, so QValues stays a flat array,
+ * and only agents that are snapshotted while they train should learn into this table.
+ */
+public class SnapshottableQValues extends QValues {
+    private static final int BLOCK_SHIFT = 10;
+    public static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE-1;
+
+    private double[][] blocks;
+    private int[] blockEpochs; // The epoch in which each block was last copied, or created
+    private int epoch; // Only the blocks of the current epoch are owned by this table, and can be written in place
+
+    private CoffeeEnvironment environment;
+
+    public SnapshottableQValues(CoffeeEnvironment environment){
+        super(environment, null);
+        this.environment = environment;
+        // Q value is zero for every action that was never performed
+        int numValues = environment.getNumStates()*CoffeeWorldAction.NUM_ACTIONS;
+        int numBlocks = (numValues+BLOCK_SIZE-1) >>> BLOCK_SHIFT;
+        this.blocks = new double[numBlocks][];
+        for(int b=0;b<numBlocks;b++)
+            this.blocks[b] = new double[Math.min(BLOCK_SIZE, numValues-(b << BLOCK_SHIFT))];
+        this.blockEpochs = new int[numBlocks];
+    }
+
+    /**
+     * A table that shares the given blocks, and owns none of them.
+     */
+    private SnapshottableQValues(CoffeeEnvironment environment, double[][] blocks){
+        super(environment, null);
+        this.environment = environment;
+        this.blocks = blocks;
+        this.blockEpochs = new int[blocks.length];
+        this.epoch = 1;
+    }
+
+    /**
+     * A copy of the current Q values, unaffected by later updates of this table.
+     * It takes time proportional to the number of blocks, not of Q values: the blocks are shared copy-on-write.
+     * Must be called from the thread that updates the table.
+     */
+    @Override
+    public SnapshottableQValues snapshot(){
+        this.epoch++;
+        return new SnapshottableQValues(this.environment, this.blocks.clone());
+    }
+
+    @Override
+    public double getQValue(int stateId, int actionId){
+        int index = stateId*CoffeeWorldAction.NUM_ACTIONS+actionId;
+        return this.blocks[index >>> BLOCK_SHIFT][index & BLOCK_MASK];
+    }
+
+    @Override
+    public void setQValue(int stateId, int actionId, double newValue){
+        int index = stateId*CoffeeWorldAction.NUM_ACTIONS+actionId;
+        int block = index >>> BLOCK_SHIFT;
+        if(this.blockEpochs[block]!=this.epoch){
+            // The block may be shared with a snapshot
+            this.blocks[block] = this.blocks[block].clone();
+            this.blockEpochs[block] = this.epoch;
+        }
+        this.blocks[block][index & BLOCK_MASK] = newValue;
+    }
+}
@@ -0,0 +1,91 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * An epsilon-greedy Q-learning agent for a LazyCoffeeEnvironment, that keeps its Q values in an OffHeapQTable.
+ * It uses the same update rule and learning rate schedule as AbstractQLearningAgent,
+ * but its memory grows only with the number of states it visited.
+ */
+public class SparseQLearningAgent {
+    private LazyCoffeeEnvironment environment;
+    private double discountFactor;
+    private double epsilon;
+    private Random randomGenerator;
+
+    private OffHeapQTable qValues;
+    private double learningRate;
+    private long iterations;
+    private double learningRateExponent;
+
+    public SparseQLearningAgent(LazyCoffeeEnvironment environment, double discountFactor, double epsilon,
+                                Random randomGenerator){
+        this.environment = environment;
+        this.discountFactor = discountFactor;
+        this.epsilon = epsilon;
+        this.randomGenerator = randomGenerator;
+        this.qValues = new OffHeapQTable(1024);
+        this.learningRate = 1;
+        this.iterations = 0;
+        this.learningRateExponent = AbstractQLearningAgent.DEFAULT_LEARNING_RATE_EXPONENT;
+    }
+
+    /**
+     * Set the exponent of the learning rate schedule, as in AbstractQLearningAgent.
+     */
+    public void setLearningRateExponent(double learningRateExponent){
+        this.learningRateExponent = learningRateExponent;
+    }
+
+    /**
+     * Choose a random legal action with probability epsilon, and otherwise the one with the highest Q value.
+     * @return the id of the chosen action.
+     */
+    public int chooseAction(long stateKey){
+        int mask = this.environment.legalActionMask(stateKey);
+        if(this.randomGenerator.nextDouble()<this.epsilon){
+            List<CoffeeWorldAction> legalActions = CoffeeEnvironment.actionsOf(mask);
+            return legalActions.get(this.randomGenerator.nextInt(legalActions.size())).id;
+        }
+        return this.qValues.argmaxQ(stateKey,mask);
+    }
+
+    /**
+     * Update the Q values with the observed (state, action, new state, reward) tuple.
+     */
+    public void learn(long stateKey, int actionId, long newStateKey, double reward){
+        double oldQ = this.qValues.getQValue(stateKey,actionId);
+        double maxQ = this.qValues.maxQ(newStateKey,this.environment.legalActionMask(newStateKey));
+
+        double newQ = AbstractQLearningAgent.qLearningUpdate(this.learningRate, oldQ, reward, this.discountFactor, maxQ);
+        this.qValues.setQValue(stateKey,actionId,newQ);
+
+        // Update learning rate
+        this.iterations++;
+        this.learningRate = AbstractQLearningAgent.learningRateAfter(this.iterations, this.learningRateExponent);
+    }
+
+    /**
+     * Run a single episode from the initial state, learning from every step.
+     * @return The discounted rewards collected by the agent.
+     */
+    public double runEpisode(double[] reward){
+        long currentState = this.environment.getInitialStateKey();
+        long newState;
+        int action;
+        double accumulatedReward = 0;
+        double discount = 1.0;
+        while(this.environment.isTerminal(currentState)==false){
+            action = this.chooseAction(currentState);
+            newState = this.environment.step(currentState,action,reward);
+            this.learn(currentState,action,newState,reward[0]);
+            accumulatedReward += discount*reward[0];
+            discount *= this.discountFactor;
+            currentState = newState;
+        }
+        return accumulatedReward;
+    }
+
+    public OffHeapQTable getQValues(){
+        return this.qValues;
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Gives the spill probability of every cell of a grid, without storing the whole grid.
+ * Used by LazyCoffeeEnvironment for floors too large to keep in a double[][].
+ */
+public interface SpillProbabilitySource {
+    double getSpillProbability(long row, long col);
+}
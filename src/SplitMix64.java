@@ -0,0 +1,18 @@
+/**
+ * The SplitMix64 finalizer, a fast mixing function of 64-bit values whose outputs look independent
+ * even for consecutive inputs. It is shared by the procedural spill probabilities, the per-episode seeds
+ * and the hash of the off-heap Q table.
+ */
+public final class SplitMix64 {
+    // The golden ratio increment of the SplitMix64 generator
+    public static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private SplitMix64(){
+    }
+
+    public static long mix(long z){
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
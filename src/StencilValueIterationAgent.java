@@ -0,0 +1,164 @@
+/**
+ * An MDP solving agent that runs value iteration as a stencil over the grid.
+ * In Coffee World a move from a cell reaches the neighbor cell with probability 1-p (p is the cell's spill
+ * probability), and otherwise the goal state, whose V value is zero. So the Bellman update of every cell
+ * except the coffee cell is
+ *      V[cell] = discountFactor*(1-p)*max(V[up], V[down], V[left], V[right])
+ * and the coffee cell, where the only action is drinking the coffee, has V = 100.
+ *
+ * The V values are kept in a row-major grid padded with a border of -infinity cells, so moves off the grid
+ * never win the max, and every row is updated by the same simple loop over flat arrays, with no per-cell
+ * bounds checks or action lists. Sweeps are synchronous (Jacobi), reading from one grid and writing to the other,
+ * so the iterations of a row's loop are independent. The convergence criterion is the same as in ValueIterationAgent.
+ *
+ * A row can also be updated with the Java Vector API, several cells per instruction, by VectorRowSweep.
+ * The project is compiled for Java 8, so that class lives in vector/src and is compiled separately, and is loaded
+ * at run time when it is on the classpath and the JVM runs with --add-modules jdk.incubator.vector (Java 16 or later):
+ *      javac --release 17 --add-modules jdk.incubator.vector -cp out -d out vector/src/*.java
+ *      java --add-modules jdk.incubator.vector -cp out ...
+ * Otherwise the rows are updated by the scalar loop. Both compute the same values.
+ */
+public class StencilValueIterationAgent extends AbstractValueFunctionAgent {
+
+    /**
+     * The update of the padded cells [from, to) of one row, reading the V values from oldV and writing them to newV.
+     * Returns the largest change of a V value among them.
+     */
+    public interface RowSweep {
+        double sweepRow(double[] oldV, double[] newV, double[] factor, int from, int to, int stride);
+    }
+
+    private static final RowSweep SCALAR = new RowSweep() {
+        @Override
+        public double sweepRow(double[] oldV, double[] newV, double[] factor, int from, int to, int stride) {
+            return scalarSweepRow(oldV, newV, factor, from, to, stride);
+        }
+    };
+    private static final RowSweep VECTOR = loadVectorRowSweep(); // Null if the Vector API is not available
+
+    private Metrics metrics;
+    private boolean vectorized;
+
+    public StencilValueIterationAgent(OpenCoffeeEnvironment environment, double discountFactor){
+        super(environment, discountFactor);
+        this.vectorized = VECTOR!=null;
+    }
+
+    /**
+     * Load VectorRowSweep, or return null if it is not on the classpath or the Vector API is not available.
+     */
+    private static RowSweep loadVectorRowSweep(){
+        try {
+            return (RowSweep) Class.forName("VectorRowSweep").getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether the rows can be updated with the Vector API in this JVM.
+     */
+    public static boolean isVectorAvailable(){
+        return VECTOR!=null;
+    }
+
+    /**
+     * Update the rows with the Vector API (the default, when it is available) or with the scalar loop.
+     * Throws an IllegalStateException when asked for the Vector API and it is not available.
+     */
+    public void setVectorized(boolean vectorized){
+        if(vectorized && VECTOR==null)
+            throw new IllegalStateException("The Vector API is not available; run with --add-modules jdk.incubator.vector");
+        this.vectorized = vectorized;
+    }
+
+    /**
+     * Run the value iteration algorithm until it converges to an error smaller than 0.001.
+     */
+    @Override
+    public void plan() {
+        OpenCoffeeEnvironment environment = (OpenCoffeeEnvironment) this.environment;
+        int rows = environment.rows;
+        int cols = environment.cols;
+        int stride = cols+2;
+        int coffeeCell = rows*stride+cols; // The padded index of cell (rows-1, cols-1)
+
+        // For every cell, the discounted probability of not spilling the coffee when moving from it
+        double[] factor = new double[(rows+2)*stride];
+        for(int row=0;row<rows;row++)
+            for(int col=0;col<cols;col++)
+                factor[(row+1)*stride+col+1] = this.discountFactor*(1-environment.spillProbabilities[row][col]);
+
+        double[] oldV = new double[(rows+2)*stride];
+        double[] newV = new double[(rows+2)*stride];
+        double[] swap;
+        initializePadding(oldV, rows, cols);
+        initializePadding(newV, rows, cols);
+        oldV[coffeeCell] = 100.0;
+        newV[coffeeCell] = 100.0;
+
+        RowSweep rowSweep = this.vectorized ? VECTOR : SCALAR;
+        double maxVDiff;
+        int sweep = 0;
+        long sweepStartTime;
+        Object event;
+        do {
+            event = SweepEvents.begin();
+            sweepStartTime = System.nanoTime();
+            maxVDiff = 0;
+            for(int row=1;row<rows;row++)
+                maxVDiff = Math.max(maxVDiff, rowSweep.sweepRow(oldV, newV, factor, row*stride+1, row*stride+cols+1, stride));
+            // The last row without the coffee cell, whose V value stays 100
+            maxVDiff = Math.max(maxVDiff, rowSweep.sweepRow(oldV, newV, factor, rows*stride+1, coffeeCell, stride));
+            if(this.metrics!=null)
+                this.metrics.recordSweep(maxVDiff, System.nanoTime()-sweepStartTime);
+            SweepEvents.commit(event, "StencilValueIterationAgent", ++sweep, maxVDiff);
+            swap = oldV;
+            oldV = newV;
+            newV = swap;
+        } while(maxVDiff>0.001);
+
+        // Unpad the values into an array indexed by state id (the goal state stays zero)
+        double[] vValues = new double[environment.getNumStates()];
+        for(int row=0;row<rows;row++)
+            System.arraycopy(oldV, (row+1)*stride+1, vValues, row*cols, cols);
+        this.vValues = vValues;
+    }
+
+    /**
+     * Record every sweep of plan() from now on in the given metrics (null to stop recording).
+     */
+    public void setMetrics(Metrics metrics){
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set the border cells of a padded grid to -infinity.
+     */
+    private static void initializePadding(double[] v, int rows, int cols){
+        int stride = cols+2;
+        for(int col=0;col<stride;col++){
+            v[col] = Double.NEGATIVE_INFINITY;
+            v[(rows+1)*stride+col] = Double.NEGATIVE_INFINITY;
+        }
+        for(int row=1;row<=rows;row++){
+            v[row*stride] = Double.NEGATIVE_INFINITY;
+            v[row*stride+cols+1] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Update the padded cells [from, to) of one row, and return the largest change of a V value among them.
+     * Every cell of a grid with more than one cell has a neighbor inside the grid, so the max is always finite.
+     */
+    static double scalarSweepRow(double[] oldV, double[] newV, double[] factor, int from, int to, int stride){
+        double maxVDiff = 0;
+        double best;
+        for(int i=from;i<to;i++){
+            best = Math.max(Math.max(oldV[i-stride], oldV[i+stride]), Math.max(oldV[i-1], oldV[i+1]));
+            newV[i] = factor[i]*best;
+            maxVDiff = Math.max(maxVDiff, Math.abs(newV[i]-oldV[i]));
+        }
+        return maxVDiff;
+    }
+}
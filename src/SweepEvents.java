@@ -0,0 +1,112 @@
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Java Flight Recorder events of value iteration sweeps, so that sweeps show up in a recording
+ * next to the GC and JIT events, e.g., with java -XX:StartFlightRecording=filename=plan.jfr ...
+ * The planners begin an event before every sweep, and commit it with the sweep's number and residual.
+ *
+ * The project is compiled for Java 8, which has no jdk.jfr, so the event type ("coffeeworld.Sweep", with the
+ * fields planner, sweep and residual) is defined at run time with jdk.jfr.EventFactory, through reflection.
+ * On a JVM without EventFactory (before Java 12) begin() returns null and commit() does nothing.
+ * A sweep takes at least microseconds, so the reflective calls are cheap next to it.
+ */
+public class SweepEvents {
+    private static final Object FACTORY; // The jdk.jfr.EventFactory of sweep events, or null if JFR is not available
+    private static final Method NEW_EVENT;
+    private static final Method BEGIN;
+    private static final Method SET;
+    private static final Method COMMIT;
+
+    static {
+        Object factory = null;
+        Method newEvent = null;
+        Method begin = null;
+        Method set = null;
+        Method commit = null;
+        try {
+            Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+            Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+            Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+            List<Object> eventAnnotations = Arrays.asList(
+                    annotation.newInstance(Class.forName("jdk.jfr.Name"), "coffeeworld.Sweep"),
+                    annotation.newInstance(Class.forName("jdk.jfr.Label"), "Value Iteration Sweep"),
+                    annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"Coffee World"}),
+                    annotation.newInstance(Class.forName("jdk.jfr.Description"),
+                            "A sweep of a value iteration planner over all the states"),
+                    annotation.newInstance(Class.forName("jdk.jfr.StackTrace"), false));
+            List<Object> fields = Arrays.asList(
+                    field.newInstance(String.class, "planner", Arrays.asList(
+                            annotation.newInstance(Class.forName("jdk.jfr.Label"), "Planner"))),
+                    field.newInstance(int.class, "sweep", Arrays.asList(
+                            annotation.newInstance(Class.forName("jdk.jfr.Label"), "Sweep"),
+                            annotation.newInstance(Class.forName("jdk.jfr.Description"),
+                                    "The number of the sweep in its plan() call, from 1"))),
+                    field.newInstance(double.class, "residual", Arrays.asList(
+                            annotation.newInstance(Class.forName("jdk.jfr.Label"), "Residual"),
+                            annotation.newInstance(Class.forName("jdk.jfr.Description"),
+                                    "The largest change of a V value in the sweep"))));
+
+            factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+            newEvent = eventFactory.getMethod("newEvent");
+            begin = event.getMethod("begin");
+            set = event.getMethod("set", int.class, Object.class);
+            commit = event.getMethod("commit");
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            factory = null; // No JFR events on this JVM
+        }
+        FACTORY = factory;
+        NEW_EVENT = newEvent;
+        BEGIN = begin;
+        SET = set;
+        COMMIT = commit;
+    }
+
+    private SweepEvents(){
+    }
+
+    /**
+     * Whether sweep events are emitted on this JVM.
+     */
+    public static boolean isAvailable(){
+        return FACTORY!=null;
+    }
+
+    /**
+     * Create an event and begin timing it, before a sweep.
+     * @return the event, or null if JFR is not available.
+     */
+    public static Object begin(){
+        if(FACTORY==null)
+            return null;
+        try {
+            Object event = NEW_EVENT.invoke(FACTORY);
+            BEGIN.invoke(event);
+            return event;
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Beginning a sweep event failed", e);
+        }
+    }
+
+    /**
+     * Commit an event returned by begin(), after the sweep. Does nothing if the event is null.
+     */
+    public static void commit(Object event, String planner, int sweep, double residual){
+        if(event==null)
+            return;
+        try {
+            SET.invoke(event, 0, planner);
+            SET.invoke(event, 1, sweep);
+            SET.invoke(event, 2, residual);
+            COMMIT.invoke(event);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Committing a sweep event failed", e);
+        }
+    }
+}
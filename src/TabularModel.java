@@ -0,0 +1,105 @@
+import java.util.Random;
+
+/**
+ * A model of the environment learned from observed transitions: for every (state, action) pair,
+ * the number of times it was performed, the sum of the rewards it gave, and how many times it led to each new state.
+ * In Coffee World an action has at most two outcomes (the robot moves, or spills the coffee),
+ * so the outcomes of a pair are kept in MAX_OUTCOMES fixed slots.
+ * Pairs are indexed by stateId*CoffeeWorldAction.NUM_ACTIONS+actionId.
+ */
+public class TabularModel {
+    public static final int MAX_OUTCOMES = 2;
+
+    private int[] counts; // The number of times each pair was performed
+    private double[] rewardSums; // The sum of the rewards each pair gave
+    private int[] outcomeStates; // The new states each pair led to, MAX_OUTCOMES slots per pair, -1 for an empty slot
+    private int[] outcomeCounts; // The number of times each pair led to each of its new states
+
+    // The pairs that were performed at least once, in the order they were first performed
+    private int[] observedPairs;
+    private int numObserved;
+
+    public TabularModel(int numStates){
+        int numPairs = numStates*CoffeeWorldAction.NUM_ACTIONS;
+        this.counts = new int[numPairs];
+        this.rewardSums = new double[numPairs];
+        this.outcomeStates = new int[numPairs*MAX_OUTCOMES];
+        java.util.Arrays.fill(this.outcomeStates, -1);
+        this.outcomeCounts = new int[numPairs*MAX_OUTCOMES];
+        this.observedPairs = new int[numPairs];
+    }
+
+    private TabularModel(TabularModel other){
+        this.counts = other.counts.clone();
+        this.rewardSums = other.rewardSums.clone();
+        this.outcomeStates = other.outcomeStates.clone();
+        this.outcomeCounts = other.outcomeCounts.clone();
+        this.observedPairs = other.observedPairs.clone();
+        this.numObserved = other.numObserved;
+    }
+
+    /**
+     * A copy of the model, unaffected by later observations.
+     */
+    public TabularModel copy(){
+        return new TabularModel(this);
+    }
+
+    /**
+     * Record an observed transition.
+     */
+    public void observe(int stateId, int actionId, int newStateId, double reward){
+        int pair = stateId*CoffeeWorldAction.NUM_ACTIONS+actionId;
+        if(this.counts[pair]==0)
+            this.observedPairs[this.numObserved++] = pair;
+        this.counts[pair]++;
+        this.rewardSums[pair] += reward;
+
+        int slot = pair*MAX_OUTCOMES;
+        int end = slot+MAX_OUTCOMES;
+        while(this.outcomeStates[slot]!=newStateId && this.outcomeStates[slot]!=-1){
+            slot++;
+            if(slot==end)
+                throw new IllegalStateException("More than "+MAX_OUTCOMES+" outcomes for action "
+                        +actionId+" in state "+stateId);
+        }
+        this.outcomeStates[slot] = newStateId;
+        this.outcomeCounts[slot]++;
+    }
+
+    /**
+     * The number of times the action was performed in the state.
+     */
+    public int getCount(int stateId, int actionId){
+        return this.counts[stateId*CoffeeWorldAction.NUM_ACTIONS+actionId];
+    }
+
+    /**
+     * The number of (state, action) pairs that were performed at least once.
+     */
+    public int getNumObserved(){
+        return this.numObserved;
+    }
+
+    /**
+     * A pair that was performed at least once, drawn uniformly. The model must not be empty.
+     */
+    public int sampleObservedPair(Random random){
+        return this.observedPairs[random.nextInt(this.numObserved)];
+    }
+
+    /**
+     * The Q value of the action in the state under the model, with the given Q values for the new states:
+     * the average reward plus the discounted best Q value of the new state, weighted by the observed frequencies.
+     * The action must have been performed at least once.
+     */
+    public double qValue(int stateId, int actionId, QValues qValues, double discountFactor){
+        int pair = stateId*CoffeeWorldAction.NUM_ACTIONS+actionId;
+        double count = this.counts[pair];
+        double sum = this.rewardSums[pair];
+        int slot = pair*MAX_OUTCOMES;
+        for(int end=slot+MAX_OUTCOMES; slot<end && this.outcomeStates[slot]!=-1; slot++)
+            sum += this.outcomeCounts[slot]*discountFactor*qValues.maxQ(this.outcomeStates[slot]);
+        return sum/count;
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * Spill probabilities that repeat a small tile over the whole floor.
+ */
+public class TiledSpillProbabilities implements SpillProbabilitySource {
+    private double[][] tile;
+
+    public TiledSpillProbabilities(double[][] tile){
+        this.tile = tile;
+    }
+
+    @Override
+    public double getSpillProbability(long row, long col) {
+        double[] tileRow = this.tile[(int) (row % this.tile.length)];
+        return tileRow[(int) (col % tileRow.length)];
+    }
+}
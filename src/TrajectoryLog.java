@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A memory-mapped trajectory log, written by a TrajectoryWriter (see there for the format).
+ * Records are read in place with absolute gets, with no deserialization, so any number of threads
+ * can read the log at once. Logs larger than 2GB are mapped in several regions.
+ *
+ * The logged transitions can be fed to a Q-learning agent's learn() for offline training, either by a single agent,
+ * or split into segments that are learned concurrently into a shared Q table, as in HogwildQLearning.
+ */
+public class TrajectoryLog {
+    // The number of records in every mapped region (except the last one)
+    private static final int RECORDS_PER_REGION = Integer.MAX_VALUE/TrajectoryWriter.RECORD_SIZE;
+
+    public int rows;
+    public int cols;
+
+    private MappedByteBuffer[] regions;
+    private long numRecords;
+
+    private TrajectoryLog(){
+    }
+
+    /**
+     * Memory-map a trajectory log file.
+     */
+    public static TrajectoryLog open(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size<TrajectoryWriter.HEADER_SIZE)
+                throw new IOException("Not a trajectory log: "+path);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, TrajectoryWriter.HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if(header.getInt()!=TrajectoryWriter.MAGIC)
+                throw new IOException("Not a trajectory log: "+path);
+            int version = header.getInt();
+            if(version!=TrajectoryWriter.VERSION)
+                throw new IOException("Unsupported trajectory log version "+version+": "+path);
+            if((size-TrajectoryWriter.HEADER_SIZE)%TrajectoryWriter.RECORD_SIZE!=0)
+                throw new IOException("Truncated trajectory log: "+path);
+
+            TrajectoryLog log = new TrajectoryLog();
+            log.rows = header.getInt();
+            log.cols = header.getInt();
+            log.numRecords = (size-TrajectoryWriter.HEADER_SIZE)/TrajectoryWriter.RECORD_SIZE;
+
+            // The mappings stay valid after the channel is closed
+            int numRegions = (int) ((log.numRecords+RECORDS_PER_REGION-1)/RECORDS_PER_REGION);
+            log.regions = new MappedByteBuffer[numRegions];
+            for(int r=0;r<numRegions;r++){
+                long first = (long) r*RECORDS_PER_REGION;
+                long records = Math.min(RECORDS_PER_REGION, log.numRecords-first);
+                log.regions[r] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        TrajectoryWriter.HEADER_SIZE+first*TrajectoryWriter.RECORD_SIZE,
+                        records*TrajectoryWriter.RECORD_SIZE);
+                log.regions[r].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return log;
+        }
+    }
+
+    /**
+     * Check that this log was recorded in a world of the same size as the given environment.
+     */
+    public void checkCompatible(CoffeeEnvironment environment){
+        if(this.rows!=environment.rows || this.cols!=environment.cols)
+            throw new IllegalArgumentException("Trajectory log of a "+this.rows+"x"+this.cols
+                    +" grid does not fit a "+environment.rows+"x"+environment.cols+" grid");
+    }
+
+    public long getNumRecords(){
+        return this.numRecords;
+    }
+
+    public int getState(long record){
+        return this.region(record).getInt(this.offset(record));
+    }
+
+    public int getNewState(long record){
+        return this.region(record).getInt(this.offset(record)+4);
+    }
+
+    public float getReward(long record){
+        return this.region(record).getFloat(this.offset(record)+8);
+    }
+
+    public int getAction(long record){
+        return this.region(record).get(this.offset(record)+12);
+    }
+
+    public boolean isEpisodeStart(long record){
+        return (this.region(record).get(this.offset(record)+13) & TrajectoryWriter.FLAG_EPISODE_START)!=0;
+    }
+
+    public boolean isEpisodeEnd(long record){
+        return (this.region(record).get(this.offset(record)+13) & TrajectoryWriter.FLAG_EPISODE_END)!=0;
+    }
+
+    /**
+     * The lane of the record: the episode flags of a record refer to the records of its lane only.
+     */
+    public int getLane(long record){
+        return this.region(record).getShort(this.offset(record)+14) & 0xFFFF;
+    }
+
+    private MappedByteBuffer region(long record){
+        return this.regions[(int) (record/RECORDS_PER_REGION)];
+    }
+
+    private int offset(long record){
+        return (int) (record%RECORDS_PER_REGION)*TrajectoryWriter.RECORD_SIZE;
+    }
+
+    /**
+     * Feed the records [from, to) to the agent's learn(), in order.
+     */
+    public void learn(AbstractQLearningAgent agent, long from, long to){
+        MappedByteBuffer region = null;
+        int offset = 0;
+        for(long record=from;record<to;record++){
+            if(region==null || offset==region.limit()){
+                region = this.region(record);
+                offset = this.offset(record);
+            }
+            agent.learn(region.getInt(offset), region.get(offset+12), region.getInt(offset+4),
+                    region.getFloat(offset+8));
+            offset += TrajectoryWriter.RECORD_SIZE;
+        }
+    }
+
+    /**
+     * Feed the whole log to the agent's learn(), in order.
+     */
+    public void learn(AbstractQLearningAgent agent){
+        this.checkCompatible(agent.environment);
+        this.learn(agent, 0, this.numRecords);
+    }
+
+    /**
+     * Split the log into parallelism segments, and learn every segment with its own agent on its own thread,
+     * all the agents learning into the same lock-free Q table (see HogwildQLearning).
+     * @return the learned Q table.
+     */
+    public AtomicQValues learnInParallel(CoffeeEnvironment environment, int parallelism,
+                                         HogwildQLearning.AgentFactory agentFactory, long seed){
+        this.checkCompatible(environment);
+        AtomicQValues qValues = new AtomicQValues(environment);
+        LongAdder updates = new LongAdder();
+        SplittableRandom seeds = new SplittableRandom(seed);
+
+        List<Callable<Void>> workers = new ArrayList<>(parallelism);
+        for(int w=0;w<parallelism;w++){
+            final AbstractQLearningAgent agent = agentFactory.create(
+                    environment.copy(new Random(seeds.split().nextLong())), qValues);
+            agent.learnConcurrently(parallelism, updates);
+            final long from = this.numRecords*w/parallelism;
+            final long to = this.numRecords*(w+1)/parallelism;
+            workers.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    learn(agent, from, to);
+                    return null;
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for(Future<Void> result : pool.invokeAll(workers))
+                result.get();
+            return qValues;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Offline learning failed", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams observed (state, action, new state, reward) transitions to a binary trajectory log.
+ *
+ * The file starts with a HEADER_SIZE bytes header (little endian): magic (int), version (int), rows (int), cols (int).
+ * It is followed by fixed-width RECORD_SIZE bytes records (little endian):
+ * state id (int), new state id (int), reward (float), action id (byte), flags (byte), lane (unsigned short).
+ * The lane identifies the episode stream of the transition: with a VectorizedCoffeeEnvironment, the records of
+ * the episodes of all the batch slots are interleaved, and every slot writes its own lane.
+ * The flags mark the first (FLAG_EPISODE_START) and last (FLAG_EPISODE_END) transitions of every episode,
+ * tracked separately for every lane, so an episode is the records of one lane from its start to its end.
+ * Records are collected in a direct buffer, and written to a FileChannel when it is full.
+ *
+ * A writer is not thread-safe: every thread (or agent) that records transitions needs its own log.
+ */
+public class TrajectoryWriter implements Closeable {
+    public static final int MAGIC = 0x314A5254; // "TRJ1"
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 16;
+    public static final int MAX_LANE = 0xFFFF;
+    public static final byte FLAG_EPISODE_START = 1;
+    public static final byte FLAG_EPISODE_END = 2;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private boolean[] episodeStarted; // For every lane, true if its previous transition did not end its episode
+    private long records;
+
+    public TrajectoryWriter(Path path, CoffeeEnvironment environment) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.episodeStarted = new boolean[1];
+        this.buffer.putInt(MAGIC);
+        this.buffer.putInt(VERSION);
+        this.buffer.putInt(environment.rows);
+        this.buffer.putInt(environment.cols);
+    }
+
+    /**
+     * Append a transition of lane 0. endOfEpisode is true if the new state is terminal.
+     * Throws an UncheckedIOException if the log cannot be written, so that it can be called while acting.
+     */
+    public void write(int stateId, int actionId, int newStateId, double reward, boolean endOfEpisode){
+        this.write(0, stateId, actionId, newStateId, reward, endOfEpisode);
+    }
+
+    /**
+     * Append a transition of the given lane (in [0, MAX_LANE]), e.g., the slot of a batch environment.
+     */
+    public void write(int lane, int stateId, int actionId, int newStateId, double reward, boolean endOfEpisode){
+        if(lane<0 || lane>MAX_LANE)
+            throw new IllegalArgumentException("Lane "+lane+" is not in [0, "+MAX_LANE+"]");
+        if(lane>=this.episodeStarted.length)
+            this.episodeStarted = java.util.Arrays.copyOf(this.episodeStarted,
+                    Math.min(MAX_LANE+1, Math.max(lane+1, 2*this.episodeStarted.length)));
+        if(this.buffer.remaining()<RECORD_SIZE)
+            this.writeBuffer();
+        byte flags = 0;
+        if(!this.episodeStarted[lane])
+            flags |= FLAG_EPISODE_START;
+        if(endOfEpisode)
+            flags |= FLAG_EPISODE_END;
+        this.buffer.putInt(stateId);
+        this.buffer.putInt(newStateId);
+        this.buffer.putFloat((float) reward);
+        this.buffer.put((byte) actionId);
+        this.buffer.put(flags);
+        this.buffer.putShort((short) lane);
+        this.episodeStarted[lane] = !endOfEpisode;
+        this.records++;
+    }
+
+    /**
+     * The number of transitions written so far.
+     */
+    public long getRecords(){
+        return this.records;
+    }
+
+    /**
+     * Write the buffered transitions to the file.
+     */
+    public void flush(){
+        this.writeBuffer();
+    }
+
+    private void writeBuffer(){
+        this.buffer.flip();
+        try {
+            while(this.buffer.hasRemaining())
+                this.channel.write(this.buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.writeBuffer();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ * The transition and reward functions of an OpenCoffeeEnvironment, compiled into flat arrays
+ * (compressed sparse rows). The transitions of state s and action a are the entries
+ * offsets[s*NUM_ACTIONS+a] (inclusive) to offsets[s*NUM_ACTIONS+a+1] (exclusive) of
+ * nextState, probability and reward. An illegal action has no transitions.
+ * States and actions are identified by their ids in the environment.
+ */
+public class TransitionModel {
+    public int numStates;
+    public int[] offsets;
+    public int[] nextState; // The state reached by each transition
+    public double[] probability; // The probability of each transition
+    public double[] reward; // The reward obtained by each transition
+
+    // The predecessors of state s (the states with a transition to s) are the entries
+    // predecessorOffsets[s] (inclusive) to predecessorOffsets[s+1] (exclusive) of predecessors.
+    // Created by computePredecessors().
+    public int[] predecessorOffsets;
+    public int[] predecessors;
+
+    public TransitionModel(int numStates, int numTransitions){
+        this.numStates = numStates;
+        this.offsets = new int[numStates*CoffeeWorldAction.NUM_ACTIONS+1];
+        this.nextState = new int[numTransitions];
+        this.probability = new double[numTransitions];
+        this.reward = new double[numTransitions];
+    }
+
+    /**
+     * Fill predecessorOffsets and predecessors, if they were not computed already.
+     * Every predecessor is listed once, even if it reaches the state by several actions.
+     */
+    public void computePredecessors(){
+        if(this.predecessors!=null)
+            return;
+
+        // Count the predecessors of every state. A state's transitions are consecutive,
+        // so a repeated predecessor is detected by remembering the last one added.
+        int[] lastPredecessor = new int[this.numStates];
+        Arrays.fill(lastPredecessor,-1);
+        int[] offsets = new int[this.numStates+1];
+        int stateEnd;
+        for(int s=0;s<this.numStates;s++){
+            stateEnd = this.offsets[(s+1)*CoffeeWorldAction.NUM_ACTIONS];
+            for(int t=this.offsets[s*CoffeeWorldAction.NUM_ACTIONS];t<stateEnd;t++)
+                if(lastPredecessor[this.nextState[t]]!=s){
+                    lastPredecessor[this.nextState[t]] = s;
+                    offsets[this.nextState[t]+1]++;
+                }
+        }
+        for(int s=0;s<this.numStates;s++)
+            offsets[s+1] += offsets[s];
+
+        // Fill the lists
+        int[] predecessors = new int[offsets[this.numStates]];
+        int[] next = Arrays.copyOf(offsets,this.numStates);
+        Arrays.fill(lastPredecessor,-1);
+        for(int s=0;s<this.numStates;s++){
+            stateEnd = this.offsets[(s+1)*CoffeeWorldAction.NUM_ACTIONS];
+            for(int t=this.offsets[s*CoffeeWorldAction.NUM_ACTIONS];t<stateEnd;t++)
+                if(lastPredecessor[this.nextState[t]]!=s){
+                    lastPredecessor[this.nextState[t]] = s;
+                    predecessors[next[this.nextState[t]]++] = s;
+                }
+        }
+        this.predecessorOffsets = offsets;
+        this.predecessors = predecessors;
+    }
+
+    /**
+     * The index of the first transition of the given state and action.
+     */
+    public int begin(int stateId, int actionId){
+        return this.offsets[stateId*CoffeeWorldAction.NUM_ACTIONS+actionId];
+    }
+
+    /**
+     * The index after the last transition of the given state and action.
+     */
+    public int end(int stateId, int actionId){
+        return this.offsets[stateId*CoffeeWorldAction.NUM_ACTIONS+actionId+1];
+    }
+
+    /**
+     * The expected discounted value of applying the given action in the given state,
+     * where v holds the V value of every state.
+     */
+    public double qValue(int stateId, int actionId, double[] v, double discountFactor){
+        int end = this.end(stateId,actionId);
+        double q = 0;
+        for(int t=this.begin(stateId,actionId);t<end;t++)
+            q += this.probability[t]*(this.reward[t]+discountFactor*v[this.nextState[t]]);
+        return q;
+    }
+
+    /**
+     * The highest qValue() of the actions legal in the given state, or zero if there are none (a terminal state).
+     */
+    public double maxQValue(int stateId, double[] v, double discountFactor){
+        double maxQ = Double.NEGATIVE_INFINITY;
+        double q;
+        for(int a=0;a<CoffeeWorldAction.NUM_ACTIONS;a++){
+            if(this.begin(stateId,a)==this.end(stateId,a))
+                continue;
+            q = this.qValue(stateId,a,v,discountFactor);
+            if(maxQ<q)
+                maxQ = q;
+        }
+        return maxQ==Double.NEGATIVE_INFINITY ? 0.0 : maxQ;
+    }
+
+    /**
+     * The id of the legal action with the highest qValue() in the given state, or -1 if there are none.
+     * Ties are broken in favor of the action with the lower id.
+     */
+    public int bestAction(int stateId, double[] v, double discountFactor){
+        double maxQ = Double.NEGATIVE_INFINITY;
+        double q;
+        int bestAction = -1;
+        for(int a=0;a<CoffeeWorldAction.NUM_ACTIONS;a++){
+            if(this.begin(stateId,a)==this.end(stateId,a))
+                continue;
+            q = this.qValue(stateId,a,v,discountFactor);
+            if(maxQ<q){
+                maxQ = q;
+                bestAction = a;
+            }
+        }
+        return bestAction;
+    }
+}
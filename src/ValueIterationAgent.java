@@ -1,5 +1,6 @@
 import org.omg.CORBA.Environment;
 
+import java.nio.DoubleBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,6 +12,9 @@ import java.util.TreeMap;
 public class ValueIterationAgent extends MDPAgent {
     protected Map<CoffeeWorldState, Double> vValues; // Maps a state to its V value
 
+    // Where the sweeps of plan() are recorded, or null for no instrumentation
+    private Metrics metrics;
+
     public ValueIterationAgent(OpenCoffeeEnvironment environment, double discountFactor){
         super(environment, discountFactor);
     }
@@ -25,15 +29,18 @@ public class ValueIterationAgent extends MDPAgent {
             return null;
 
         OpenCoffeeEnvironment openEnvironment = (OpenCoffeeEnvironment) this.environment;
+        TransitionModel model = openEnvironment.getTransitionModel();
+        int stateId = openEnvironment.stateId(state);
         double maxV=Double.NEGATIVE_INFINITY;
         double v;
-        double reward;
+        int end;
         CoffeeWorldAction bestAction=null;
-        for(CoffeeWorldAction action : environment.getLegalActions(state)){
-            reward = environment.getReward(state,action);
-            v=reward;
-            for(OpenCoffeeEnvironment.Transition transition : openEnvironment.getLegalTransitions(state,action))
-                v += this.discountFactor*transition.probability* this.vValues.get(transition.state);
+        for(CoffeeWorldAction action : environment.getLegalActions(stateId)){
+            v=0;
+            end = model.end(stateId,action.id);
+            for(int t=model.begin(stateId,action.id);t<end;t++)
+                v += model.probability[t]*(model.reward[t]
+                        + this.discountFactor*this.vValues.get(openEnvironment.stateOf(model.nextState[t])));
             if(maxV<v){
                 maxV=v;
                 bestAction = action;
@@ -43,16 +50,36 @@ public class ValueIterationAgent extends MDPAgent {
     }
 
     /**
-     * Run the value iteration algorithm until it converges to an error smaller than 0.001.
+     * Run the value iteration algorithm until it converges to an error smaller than 0.001,
+     * starting from V values of zero.
      */
     @Override
     public void plan() {
+        this.plan((DoubleBuffer) null);
+    }
+
+    /**
+     * Same as plan(), but start from the V values of the given checkpoint (warm start),
+     * which are read directly from the checkpoint's mapping.
+     * The checkpoint must have been taken in a world of the same size, with the same discount factor.
+     */
+    public void plan(Checkpoint checkpoint) {
+        checkpoint.checkCompatible(this.environment, this.discountFactor);
+        if(checkpoint.getVValues()==null)
+            throw new IllegalArgumentException("Checkpoint has no V values");
+        this.plan(checkpoint.getVValues());
+    }
+
+    /**
+     * Run value iteration from the given initial V values, indexed by state id, or from zero if they are null.
+     */
+    private void plan(DoubleBuffer initialValues) {
         OpenCoffeeEnvironment openEnvironment = (OpenCoffeeEnvironment) this.environment;
-        this.vValues = new HashMap<CoffeeWorldState,Double>();
 
-        // Initialize V values to zero
-        for(CoffeeWorldState state : openEnvironment.getStates()){
-            this.vValues.put(state,0.0);
+        // Initialize V values
+        this.vValues = new HashMap<CoffeeWorldState, Double>();
+        for (CoffeeWorldState state : openEnvironment.getStates()) {
+            this.vValues.put(state, initialValues==null ? 0.0 : initialValues.get(openEnvironment.stateId(state)));
         }
 
         int iteration = 0;
@@ -60,7 +87,12 @@ public class ValueIterationAgent extends MDPAgent {
         double oldV;
         double vDiff;
         double maxVDiff;
+        long sweepStartTime;
+        Object event;
         do{
+            event = SweepEvents.begin();
+            sweepStartTime = System.nanoTime();
+            iteration++;
             maxVDiff=0;
             for(CoffeeWorldState state : openEnvironment.getStates()){
                 if(this.environment.isTerminal(state)==false) {
@@ -77,9 +109,29 @@ public class ValueIterationAgent extends MDPAgent {
                     this.vValues.put(state, newV);
                 }
             }
+            if(this.metrics!=null)
+                this.metrics.recordSweep(maxVDiff, System.nanoTime()-sweepStartTime);
+            SweepEvents.commit(event, "ValueIterationAgent", iteration, maxVDiff);
         }while(maxVDiff>0.001);
     }
 
+    /**
+     * Record every sweep of plan() from now on in the given metrics (null to stop recording).
+     */
+    public void setMetrics(Metrics metrics){
+        this.metrics = metrics;
+    }
+
+    /**
+     * Return the V values as an array indexed by state id.
+     */
+    public double[] getVValues(){
+        double[] values = new double[this.environment.getNumStates()];
+        for(int s=0;s<values.length;s++)
+            values[s] = this.vValues.get(this.environment.stateOf(s));
+        return values;
+    }
+
     /**
      * Perform the Bellman update rule.
      * That is, update the V value of the given state.
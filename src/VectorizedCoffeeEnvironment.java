@@ -0,0 +1,206 @@
+import java.util.Random;
+
+/**
+ * Simulates a batch of Coffee World episodes at once.
+ * The world behaves exactly like CoffeeEnvironment, but the episodes are stored as
+ * struct-of-arrays (one array entry per episode) and are all advanced by a single call to step().
+ * States and actions are identified by the same ids as in CoffeeEnvironment:
+ * row*cols+col for grid cells, rows*cols for the goal state.
+ *
+ * An episode that ends is added to the statistics, and its slot is reset to the initial state,
+ * as long as the episode budget given to reset() is not exhausted. Otherwise, the slot is marked as done.
+ */
+public class VectorizedCoffeeEnvironment {
+
+    private Random randomGenerator;
+
+    public int rows; // Number of rows in the grid
+    public int cols; // Number of columns in the grid
+    private double[] spillProbability; // The probability to spill the coffee in each grid cell, row-major
+
+    // The environment the spill probabilities were copied from (null if they were given as a grid),
+    // and its spill version at the time of the copy
+    private CoffeeEnvironment source;
+    private int sourceSpillVersion;
+    private double discountFactor;
+
+    private int goalStateId;
+    private int coffeeAtHandStateId;
+
+    // The episodes, one entry per slot
+    private int batchSize;
+    public int[] row;
+    public int[] col;
+    public boolean[] done; // True if the slot has no running episode
+    public double[] discountedReturn; // The discounted reward collected so far in the running episode
+    private double[] discount; // The discount of the next reward in the running episode
+
+    // Episode bookkeeping
+    private long episodesToStart;
+    private int runningEpisodes;
+    private long finishedEpisodes;
+    private double sumOfReturns;
+
+    public VectorizedCoffeeEnvironment(int rows, int cols, double[][] spillProbability,
+                                       double discountFactor, int batchSize){
+        this.randomGenerator = new Random();
+        this.rows = rows;
+        this.cols = cols;
+        this.discountFactor = discountFactor;
+        this.goalStateId = rows*cols;
+        this.coffeeAtHandStateId = (rows-1)*cols+(cols-1);
+
+        this.spillProbability = new double[rows*cols];
+        for(int i=0;i<rows;i++)
+            System.arraycopy(spillProbability[i],0,this.spillProbability,i*cols,cols);
+
+        this.batchSize = batchSize;
+        this.row = new int[batchSize];
+        this.col = new int[batchSize];
+        this.done = new boolean[batchSize];
+        this.discountedReturn = new double[batchSize];
+        this.discount = new double[batchSize];
+        this.reset(Long.MAX_VALUE);
+    }
+
+    /**
+     * Simulate a batch of episodes in the given environment's world. Whenever the environment's spill probabilities
+     * change (see OpenCoffeeEnvironment.updateSpillProbabilities), the next step() uses the new ones.
+     */
+    public VectorizedCoffeeEnvironment(CoffeeEnvironment environment, double discountFactor, int batchSize){
+        this(environment.rows, environment.cols, environment.getSpillProbabilities(), discountFactor, batchSize);
+        this.source = environment;
+        this.sourceSpillVersion = environment.getSpillVersion();
+    }
+
+    /**
+     * Copy the spill probabilities of the source environment again, if they changed since the last copy.
+     */
+    private void refreshSpillProbabilities(){
+        int version = this.source.getSpillVersion();
+        if(version==this.sourceSpillVersion)
+            return;
+        this.sourceSpillVersion = version;
+        double[][] spillProbability = this.source.getSpillProbabilities();
+        for(int i=0;i<this.rows;i++)
+            System.arraycopy(spillProbability[i],0,this.spillProbability,i*this.cols,this.cols);
+    }
+
+    /**
+     * Restart all the slots from the initial state, and clear the statistics.
+     * At most the given number of episodes will be started, in total, until the next reset.
+     */
+    public void reset(long episodes){
+        this.episodesToStart = episodes;
+        this.runningEpisodes = 0;
+        this.finishedEpisodes = 0;
+        this.sumOfReturns = 0;
+        for(int i=0;i<this.batchSize;i++){
+            this.done[i] = true;
+            this.startEpisode(i);
+        }
+    }
+
+    /**
+     * Start a new episode in the given slot, if the episode budget allows it.
+     */
+    private void startEpisode(int i){
+        if(this.episodesToStart==0)
+            return;
+        this.episodesToStart--;
+        this.runningEpisodes++;
+        this.row[i] = 0;
+        this.col[i] = 0;
+        this.done[i] = false;
+        this.discountedReturn[i] = 0;
+        this.discount[i] = 1.0;
+    }
+
+    /**
+     * Write the id of the current state of every slot to stateIds. Done slots get the goal state id.
+     */
+    public void getStateIds(int[] stateIds){
+        for(int i=0;i<this.batchSize;i++)
+            stateIds[i] = this.done[i] ? this.goalStateId : this.row[i]*this.cols+this.col[i];
+    }
+
+    /**
+     * Apply actionIds[i] in slot i, for every slot that is not done (the action of a done slot is ignored).
+     * The new state id and the reward of every slot are written to newStateIds and rewards.
+     * Slots whose episode ended are then restarted, so newStateIds may differ from the next getStateIds().
+     */
+    public void step(int[] actionIds, int[] newStateIds, double[] rewards){
+        if(this.source!=null)
+            this.refreshSpillProbabilities();
+        int drinkCoffee = CoffeeWorldAction.DRINK_COFFEE.id;
+        for(int i=0;i<this.batchSize;i++){
+            if(this.done[i])
+                continue;
+
+            int stateId = this.row[i]*this.cols+this.col[i];
+            int actionId = actionIds[i];
+            int newStateId;
+            double reward = 0.0;
+            if(actionId==drinkCoffee){
+                assert (stateId==this.coffeeAtHandStateId);
+                reward = 100.0;
+                newStateId = this.goalStateId;
+            }
+            else{
+                CoffeeWorldAction action = CoffeeWorldAction.ACTIONS[actionId];
+                int newRow = this.row[i] + action.deltaRows;
+                int newCol = this.col[i] + action.deltaCols;
+                assert (newRow>=0 && newRow<this.rows && newCol>=0 && newCol<this.cols);
+                newStateId = newRow*this.cols+newCol;
+                if(this.randomGenerator.nextFloat()>this.spillProbability[newStateId]){
+                    this.row[i] = newRow;
+                    this.col[i] = newCol;
+                }
+                else // Spilled the coffee
+                    newStateId = this.goalStateId;
+            }
+
+            this.discountedReturn[i] += this.discount[i]*reward;
+            this.discount[i] *= this.discountFactor;
+            newStateIds[i] = newStateId;
+            rewards[i] = reward;
+
+            if(newStateId==this.goalStateId){
+                this.finishedEpisodes++;
+                this.sumOfReturns += this.discountedReturn[i];
+                this.runningEpisodes--;
+                this.done[i] = true;
+                this.startEpisode(i);
+            }
+        }
+    }
+
+    /**
+     * True if all the episodes started since the last reset have ended.
+     */
+    public boolean isFinished(){
+        return this.runningEpisodes==0;
+    }
+
+    public int getBatchSize(){
+        return this.batchSize;
+    }
+
+    public boolean isTerminal(int stateId){
+        return stateId==this.goalStateId;
+    }
+
+    /**
+     * The number of episodes that ended since the last reset.
+     */
+    public long getFinishedEpisodes(){
+        return this.finishedEpisodes;
+    }
+
+    /**
+     * The sum of the discounted rewards of the episodes that ended since the last reset.
+     */
+    public double getSumOfReturns(){
+        return this.sumOfReturns;
+    }
+}
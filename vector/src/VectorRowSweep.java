@@ -0,0 +1,36 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The row update of StencilValueIterationAgent with the Java Vector API: every step of the loop updates
+ * as many cells as fit in the widest vector register of the machine (e.g., 4 doubles with AVX2),
+ * and the cells that remain at the end of the row are updated by the scalar loop.
+ * Loads of the neighbors are unaligned loads of the same row shifted by one cell, or of the rows above and below.
+ *
+ * The main module is compiled for Java 8, so this class is compiled on its own, against the main module's classes:
+ *      javac --release 17 --add-modules jdk.incubator.vector -cp out -d out vector/src/*.java
+ * and StencilValueIterationAgent loads it when the JVM runs with --add-modules jdk.incubator.vector.
+ */
+public class VectorRowSweep implements StencilValueIterationAgent.RowSweep {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public double sweepRow(double[] oldV, double[] newV, double[] factor, int from, int to, int stride) {
+        DoubleVector maxVDiff = DoubleVector.zero(SPECIES);
+        DoubleVector best;
+        DoubleVector value;
+        int i = from;
+        int bound = from+SPECIES.loopBound(to-from);
+        for(;i<bound;i+=SPECIES.length()){
+            best = DoubleVector.fromArray(SPECIES, oldV, i-stride)
+                    .max(DoubleVector.fromArray(SPECIES, oldV, i+stride))
+                    .max(DoubleVector.fromArray(SPECIES, oldV, i-1).max(DoubleVector.fromArray(SPECIES, oldV, i+1)));
+            value = best.mul(DoubleVector.fromArray(SPECIES, factor, i));
+            value.intoArray(newV, i);
+            maxVDiff = maxVDiff.max(value.sub(DoubleVector.fromArray(SPECIES, oldV, i)).abs());
+        }
+        return Math.max(maxVDiff.reduceLanes(VectorOperators.MAX),
+                StencilValueIterationAgent.scalarSweepRow(oldV, newV, factor, i, to, stride));
+    }
+}